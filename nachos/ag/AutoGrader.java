@@ -97,6 +97,14 @@ public class AutoGrader {
 		}
 	}
 
+	int getIntegerArgument(String key, int defaultValue) {
+		if (!testArgs.containsKey(key)) {
+			return defaultValue;
+		}
+
+		return getIntegerArgument(key);
+	}
+
 	boolean getBooleanArgument(String key) {
 		String value = getStringArgument(key);
 
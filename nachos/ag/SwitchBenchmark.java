@@ -0,0 +1,88 @@
+package nachos.ag;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * An autograder that measures how much host time a context switch between
+ * two kernel threads takes, instead of testing the kernel. Select it with
+ * <tt>-- nachos.ag.SwitchBenchmark</tt>, using a kernel that supports
+ * <tt>KThread</tt>, such as <tt>ThreadedKernel</tt>.
+ * 
+ * <p>
+ * Two threads yield to each other <tt>switches</tt> times per round, for
+ * <tt>rounds</tt> rounds (set with <tt>-# switches=</tt><i>n</i><tt>,rounds=</tt><i>n</i>).
+ * The first round warms up the JVM and is not reported. The result includes
+ * the kernel's own cost of a yield (the scheduler, the interrupt controller
+ * and the autograder hooks), which is what a kernel workload actually pays.
+ */
+public class SwitchBenchmark extends AutoGrader {
+	/**
+	 * Allocate a new context switch benchmark.
+	 */
+	public SwitchBenchmark() {
+	}
+
+	protected void init() {
+		switches = getIntegerArgument("switches", 100000);
+		rounds = getIntegerArgument("rounds", 6);
+
+		Lib.assertTrue(switches > 0 && rounds > 1);
+	}
+
+	protected void run() {
+		long best = Long.MAX_VALUE, total = 0;
+
+		for (int round = 0; round < rounds; round++) {
+			long nanos = timeSwitches();
+			if (round == 0) {
+				continue; // warm-up
+			}
+
+			System.out.println("round " + round + ": " + nanos / switches
+					+ " ns per context switch");
+
+			best = Math.min(best, nanos);
+			total += nanos;
+		}
+
+		System.out.println("context switch: mean "
+				+ total / ((long) switches * (rounds - 1)) + " ns, best "
+				+ best / switches + " ns");
+
+		kernel.terminate();
+	}
+
+	/**
+	 * Time <tt>switches</tt> context switches between the current thread and
+	 * a partner thread.
+	 * 
+	 * @return the elapsed host time, in nanoseconds.
+	 */
+	private long timeSwitches() {
+		// each yield() hands the CPU to the other thread
+		final int yields = switches / 2;
+
+		KThread partner = new KThread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < yields; i++) {
+					KThread.yield();
+				}
+			}
+		}).setName("partner");
+
+		partner.fork();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < yields; i++) {
+			KThread.yield();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		partner.join();
+
+		return elapsed;
+	}
+
+	private int switches, rounds;
+}
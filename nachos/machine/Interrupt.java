@@ -4,9 +4,9 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.SortedSet;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -53,7 +53,11 @@ public final class Interrupt {
 	privilege.interrupt = new InterruptPrivilege();
 	
 	enabled = false;
-	pending = new TreeSet<PendingInterrupt>();
+	idleFastForward = Config.getBoolean("Interrupt.idleFastForward", true);
+
+	slotHeads = new PendingInterrupt[numLevels*numSlots];
+	slotTails = new PendingInterrupt[numLevels*numSlots];
+	occupied = new long[numLevels];
     }
 
     /**
@@ -120,17 +124,48 @@ public final class Interrupt {
 	return !enabled;
     }
 
+    /**
+     * Tell the hardware that the kernel has nothing to do until an interrupt
+     * handler gives it work. If idle fast-forwarding is enabled by the
+     * <tt>nachos.conf</tt> key <tt>Interrupt.idleFastForward</tt>, the
+     * simulated time jumps ahead by as many kernel ticks as can pass before
+     * the next interrupt becomes due, so the next tick invokes its handler.
+     * This has the same effect on the simulated time as spinning in a loop
+     * that enables interrupts once per iteration. Interrupts must be
+     * disabled.
+     */
+    public void idle() {
+	Lib.assertTrue(disabled());
+
+	if (!idleFastForward || nextDeadline == Long.MAX_VALUE ||
+	    Lib.test(dbgInt))
+	    return;
+
+	Stats stats = privilege.stats;
+
+	long ticks = (nextDeadline - stats.totalTicks - 1) / Stats.KernelTick;
+	if (ticks <= 0)
+	    return;
+
+	stats.kernelTicks += ticks * Stats.KernelTick;
+	stats.totalTicks += ticks * Stats.KernelTick;
+    }
+
     private void schedule(long when, String type, Runnable handler) {
 	Lib.assertTrue(when>0);
 	
 	long time = privilege.stats.totalTicks + when;
-	PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
+	PendingInterrupt toOccur = allocatePendingInterrupt(time, type, handler);
+
+	if (Lib.test(dbgInt))
+	    Lib.debug(dbgInt,
+		      "Scheduling the " + type +
+		      " interrupt handler at time = " + time);
 
-	Lib.debug(dbgInt,
-		  "Scheduling the " + type +
-		  " interrupt handler at time = " + time);
+	insert(toOccur);
 
-	pending.add(toOccur);
+	if (time < nextDeadline)
+	    nextDeadline = time;
     }
 
     private void tick(boolean inKernelMode) {
@@ -146,13 +181,50 @@ public final class Interrupt {
 	}
 
 	if (Lib.test(dbgInt))
-	    System.out.println("== Tick " + stats.totalTicks + " ==");
+	    Lib.debug(dbgInt, "== Tick " + stats.totalTicks + " ==");
 
 	enabled = false;
 	checkIfDue();
 	enabled = true;
     }
 
+    /**
+     * Return the number of user ticks that can pass before an interrupt
+     * becomes due. The processor may run this many instructions and account
+     * for them with a single call to <tt>addUserTicks()</tt>; the tick after
+     * that must go through <tt>tick()</tt>.
+     *
+     * @return	the number of user ticks that will not invoke any interrupt
+     *		handler, or 0 if every tick must be traced.
+     */
+    private long ticksBeforeDue() {
+	if (Lib.test(dbgInt))
+	    return 0;
+
+	return Math.max(nextDeadline - privilege.stats.totalTicks - 1, 0);
+    }
+
+    /**
+     * Advance the simulated time by the specified number of user ticks at
+     * once. Has the same effect as calling <tt>tick(false)</tt> that many
+     * times, provided no interrupt becomes due.
+     *
+     * @param	ticks	the number of user ticks, at most
+     *			<tt>ticksBeforeDue()</tt>.
+     */
+    private void addUserTicks(long ticks) {
+	Lib.assertTrue(ticks >= 0 && ticks <= ticksBeforeDue());
+
+	if (ticks == 0)
+	    return;
+
+	Stats stats = privilege.stats;
+	stats.userTicks += ticks * Stats.UserTick;
+	stats.totalTicks += ticks * Stats.UserTick;
+
+	enabled = true;
+    }
+
     private void checkIfDue() {
 	long time = privilege.stats.totalTicks;
 
@@ -161,37 +233,199 @@ public final class Interrupt {
 	if (Lib.test(dbgInt))
 	    print();
 
-	if (pending.isEmpty())
-	    return;
-
-	if (((PendingInterrupt) pending.first()).time > time)
+	if (nextDeadline > time)
 	    return;
 
-	Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
+	if (Lib.test(dbgInt))
+	    Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 	
-	while (!pending.isEmpty() &&
-	       ((PendingInterrupt) pending.first()).time <= time) {
-	    PendingInterrupt next = (PendingInterrupt) pending.first();
-	    pending.remove(next);
+	while (nextDeadline <= time) {
+	    PendingInterrupt next = removeFirst();
+	    nextDeadline = findNextDeadline();
 
 	    Lib.assertTrue(next.time <= time);
 
+	    String type = next.type;
+	    Runnable handler = next.handler;
+
+	    // the handler will usually reschedule, so recycle the node first
+	    freePendingInterrupt(next);
+
 	    if (privilege.processor != null)
 		privilege.processor.flushPipe();
 
-	    Lib.debug(dbgInt, "  " + next.type);
+	    if (Lib.test(dbgInt))
+		Lib.debug(dbgInt, "  " + type);
 			
-	    next.handler.run();
+	    handler.run();
 	}
 
 	Lib.debug(dbgInt, "  (end of list)");
     }
 
+    /**
+     * Add a pending interrupt to the timing wheel. Pending interrupts are
+     * kept in <tt>numLevels</tt> wheels of <tt>numSlots</tt> slots each,
+     * relative to <tt>cursor</tt>, the time of the last interrupt removed.
+     * An interrupt goes in the lowest wheel whose slot width covers the
+     * highest digit (base <tt>numSlots</tt>) in which its time differs from
+     * <tt>cursor</tt>, in the slot named by that digit. Interrupts due exactly
+     * at <tt>cursor</tt> go in the due list.
+     *
+     * <p>
+     * Every level's occupied slots therefore lie ahead of <tt>cursor</tt>,
+     * every interrupt in a lower level is due before every interrupt in a
+     * higher level, and the slots of a level are due in slot order. Each list
+     * is kept in the order its interrupts were created, so that interrupts
+     * due at the same time run in that order.
+     *
+     * @param	toOccur	the interrupt to add.
+     */
+    private void insert(PendingInterrupt toOccur) {
+	toOccur.next = null;
+
+	long diff = toOccur.time ^ cursor;
+	if (diff == 0) {
+	    if (dueTail == null)
+		dueHead = toOccur;
+	    else
+		dueTail.next = toOccur;
+	    dueTail = toOccur;
+	    return;
+	}
+
+	int level = (63 - Long.numberOfLeadingZeros(diff)) / slotBits;
+	int slot = (int) (toOccur.time >>> (level*slotBits)) & (numSlots-1);
+	int index = level*numSlots + slot;
+
+	if (slotTails[index] == null)
+	    slotHeads[index] = toOccur;
+	else
+	    slotTails[index].next = toOccur;
+	slotTails[index] = toOccur;
+
+	occupied[level] |= 1L << slot;
+    }
+
+    /**
+     * Remove and return the earliest pending interrupt, which must be due at
+     * <tt>nextDeadline</tt>. Advances <tt>cursor</tt> to that time, and
+     * cascades the slots holding it down to the due list.
+     *
+     * @return	the earliest pending interrupt.
+     */
+    private PendingInterrupt removeFirst() {
+	Lib.assertTrue(nextDeadline != Long.MAX_VALUE);
+
+	// moving the cursor within the earliest slot leaves every other
+	// interrupt's level and slot unchanged
+	cursor = nextDeadline;
+
+	while (dueHead == null) {
+	    int level = lowestOccupiedLevel();
+	    int slot = Long.numberOfTrailingZeros(occupied[level]);
+	    int index = level*numSlots + slot;
+
+	    PendingInterrupt list = slotHeads[index];
+	    slotHeads[index] = slotTails[index] = null;
+	    occupied[level] &= ~(1L << slot);
+
+	    while (list != null) {
+		PendingInterrupt toOccur = list;
+		list = list.next;
+		insert(toOccur);
+	    }
+	}
+
+	PendingInterrupt first = dueHead;
+	dueHead = first.next;
+	if (dueHead == null)
+	    dueTail = null;
+
+	return first;
+    }
+
+    /**
+     * Return the time of the earliest pending interrupt. This is either
+     * <tt>cursor</tt>, or the earliest time in the first occupied slot of the
+     * lowest occupied level.
+     *
+     * @return	the earliest time, or <tt>Long.MAX_VALUE</tt> if no interrupt
+     *		is pending.
+     */
+    private long findNextDeadline() {
+	if (dueHead != null)
+	    return cursor;
+
+	int level = lowestOccupiedLevel();
+	if (level == -1)
+	    return Long.MAX_VALUE;
+
+	int slot = Long.numberOfTrailingZeros(occupied[level]);
+
+	// the slots of the lowest level are one tick wide
+	if (level == 0)
+	    return (cursor & ~(long) (numSlots-1)) | slot;
+
+	long earliest = Long.MAX_VALUE;
+	for (PendingInterrupt toOccur = slotHeads[level*numSlots + slot];
+	     toOccur != null; toOccur = toOccur.next) {
+	    if (toOccur.time < earliest)
+		earliest = toOccur.time;
+	}
+
+	return earliest;
+    }
+
+    private int lowestOccupiedLevel() {
+	for (int level = 0; level < numLevels; level++) {
+	    if (occupied[level] != 0)
+		return level;
+	}
+
+	return -1;
+    }
+
+    private PendingInterrupt allocatePendingInterrupt(long time, String type,
+						      Runnable handler) {
+	PendingInterrupt toOccur = freeList;
+	if (toOccur == null)
+	    toOccur = new PendingInterrupt();
+	else
+	    freeList = toOccur.next;
+
+	toOccur.time = time;
+	toOccur.type = type;
+	toOccur.handler = handler;
+	toOccur.id = numPendingInterruptsCreated++;
+
+	return toOccur;
+    }
+
+    private void freePendingInterrupt(PendingInterrupt toOccur) {
+	toOccur.type = null;
+	toOccur.handler = null;
+
+	toOccur.next = freeList;
+	freeList = toOccur;
+    }
+
     private void print() {
 	System.out.println("Time: " + privilege.stats.totalTicks
 			   + ", interrupts " + (enabled ? "on" : "off"));
 	System.out.println("Pending interrupts:");
 
+	ArrayList<PendingInterrupt> pending = new ArrayList<PendingInterrupt>();
+	for (PendingInterrupt toOccur = dueHead; toOccur != null;
+	     toOccur = toOccur.next)
+	    pending.add(toOccur);
+	for (int index = 0; index < numLevels*numSlots; index++) {
+	    for (PendingInterrupt toOccur = slotHeads[index]; toOccur != null;
+		 toOccur = toOccur.next)
+		pending.add(toOccur);
+	}
+	Collections.sort(pending);
+
 	for (Iterator i=pending.iterator(); i.hasNext(); ) {
 	    PendingInterrupt toOccur = (PendingInterrupt) i.next();
 	    System.out.println("  " + toOccur.type +
@@ -201,17 +435,8 @@ public final class Interrupt {
 	System.out.println("  (end of list)");
     }
 
-    private class PendingInterrupt implements Comparable {
-	PendingInterrupt(long time, String type, Runnable handler) {
-	    this.time = time;
-	    this.type = type;
-	    this.handler = handler;
-	    this.id = numPendingInterruptsCreated++;
-	}
-
-	public int compareTo(Object o) {
-	    PendingInterrupt toOccur = (PendingInterrupt) o;
-
+    private class PendingInterrupt implements Comparable<PendingInterrupt> {
+	public int compareTo(PendingInterrupt toOccur) {
 	    // can't return 0 for unequal objects, so check all fields
 	    if (time < toOccur.time)
 		return -1;
@@ -230,6 +455,8 @@ public final class Interrupt {
 	Runnable handler;
 
 	private long id;
+	/** The next interrupt in the same list. */
+	private PendingInterrupt next;
     }
     
     private long numPendingInterruptsCreated = 0;
@@ -237,7 +464,25 @@ public final class Interrupt {
     private Privilege privilege;
 
     private boolean enabled;
-    private TreeSet<PendingInterrupt> pending;
+    private boolean idleFastForward;
+
+    /** The time every pending interrupt's place is relative to. */
+    private long cursor = 0;
+    /** The interrupts due at <tt>cursor</tt>, in creation order. */
+    private PendingInterrupt dueHead = null, dueTail = null;
+    /** The first and last interrupt in each slot of each level. */
+    private PendingInterrupt[] slotHeads, slotTails;
+    /** For each level, a bit set of the slots that are not empty. */
+    private long[] occupied;
+    /** Interrupt nodes waiting to be reused. */
+    private PendingInterrupt freeList = null;
+    /** The time of the earliest pending interrupt. */
+    private long nextDeadline = Long.MAX_VALUE;
+
+    private static final int slotBits = 6;
+    private static final int numSlots = 1 << slotBits;
+    /** Enough levels to place any non-negative <tt>long</tt> time. */
+    private static final int numLevels = (63 + slotBits - 1) / slotBits;
 
     private static final char dbgInt = 'i';
 
@@ -249,5 +494,13 @@ public final class Interrupt {
 	public void tick(boolean inKernelMode) {
 	    Interrupt.this.tick(inKernelMode);
 	}
+
+	public long ticksBeforeDue() {
+	    return Interrupt.this.ticksBeforeDue();
+	}
+
+	public void addUserTicks(long ticks) {
+	    Interrupt.this.addUserTicks(ticks);
+	}
     }
 }
@@ -123,7 +123,7 @@ public final class Lib {
      */
     public static void debug(char flag, String message) {
 	if (test(flag))
-	    System.out.println(message);
+	    printDebug(message);
     }
 
     /**
@@ -134,7 +134,7 @@ public final class Lib {
      * @return	<tt>true</tt> if this flag was enabled on the command line.
      */
     public static boolean test(char flag) {
-	if (debugFlags == null)
+	if (!debugging || debugFlags == null)
 	    return false;
 	else if (debugFlags[(int) '+'])
 	    return true;
@@ -161,8 +161,66 @@ public final class Lib {
 	}
     }
 
+    /**
+     * Keep the last <i>size</i> debug messages in memory instead of printing
+     * them as they are generated. The buffered messages are printed by
+     * <tt>printDebugBuffer()</tt>, which is called if Nachos terminates
+     * because of an unhandled exception.
+     *
+     * @param	size	the number of messages to keep.
+     */
+    public static void enableDebugBuffer(int size) {
+	assertTrue(size > 0);
+
+	debugBuffer = new String[size];
+	debugBufferCount = 0;
+    }
+
+    /**
+     * Print and discard the messages kept by the debug buffer, oldest first.
+     * Does nothing if the debug buffer is not enabled.
+     */
+    public static void printDebugBuffer() {
+	if (debugBuffer == null)
+	    return;
+
+	long first = Math.max(debugBufferCount - debugBuffer.length, 0);
+	for (long i=first; i<debugBufferCount; i++)
+	    System.out.println(debugBuffer[(int) (i % debugBuffer.length)]);
+
+	debugBufferCount = 0;
+    }
+
+    /**
+     * Print a debug message whose flag has already been tested, or keep it in
+     * the debug buffer if that is enabled.
+     *
+     * @param	message	the debug message.
+     */
+    static void printDebug(String message) {
+	if (debugBuffer == null) {
+	    System.out.println(message);
+	}
+	else {
+	    debugBuffer[(int) (debugBufferCount % debugBuffer.length)] = message;
+	    debugBufferCount++;
+	}
+    }
+
+    /**
+     * <tt>false</tt> if Nachos was started with <tt>-Dnachos.debug=false</tt>.
+     * In that case no debug flag ever tests <tt>true</tt>, and the JIT compiler
+     * removes all code guarded by <tt>test()</tt>.
+     */
+    public static final boolean debugging =
+	!"false".equals(System.getProperty("nachos.debug"));
+
     /** Debug flags specified on the command line. */
     private static boolean debugFlags[];
+    /** The last debug messages, if they are being kept in memory. */
+    private static String debugBuffer[] = null;
+    /** The number of messages ever added to the debug buffer. */
+    private static long debugBufferCount;
 
     /**
      * Read a file, verifying that the requested number of bytes is read, and
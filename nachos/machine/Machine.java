@@ -87,6 +87,7 @@ public final class Machine {
 	if (e instanceof ThreadDeath)
 	    throw (ThreadDeath) e;
 	
+	Lib.printDebugBuffer();
 	e.printStackTrace();
 	terminate();
     }
@@ -100,6 +101,21 @@ public final class Machine {
 	terminate();
     }
 
+    /**
+     * Count pages that the kernel transferred to or from a backing store kept
+     * on the file system, such as a swap file, as simulated disk I/O. Each page
+     * counts as one sector.
+     *
+     * @param	sectorsRead	the number of sectors read.
+     * @param	sectorsWritten	the number of sectors written.
+     */
+    public static void reportDiskIO(int sectorsRead, int sectorsWritten) {
+	Lib.assertTrue(sectorsRead >= 0 && sectorsWritten >= 0);
+
+	stats.numDiskReads += sectorsRead;
+	stats.numDiskWrites += sectorsWritten;
+    }
+
     /**
      * Return an array containing all command line arguments.
      *
@@ -121,6 +137,15 @@ public final class Machine {
 		    Lib.assertTrue(i < args.length, "switch without argument");
 		    Lib.enableDebugFlags(args[i++]);
 		}
+		else if (arg.equals("-b")) {
+		    Lib.assertTrue(i < args.length, "switch without argument");
+		    try {
+			Lib.enableDebugBuffer(Integer.parseInt(args[i++]));
+		    }
+		    catch (NumberFormatException e) {
+			Lib.assertNotReached("bad value for -b switch");
+		    }
+		}
 		else if (arg.equals("-h")) {
 		    System.out.print(help);
 		    System.exit(1);
@@ -423,6 +448,10 @@ public final class Machine {
 	"\t-d <debug flags>\n" +
 	"\t\tEnable some debug flags, e.g. -d ti\n" +
 	"\n" +
+	"\t-b <messages>\n" +
+	"\t\tKeep only the last <messages> debug messages in memory, and\n" +
+	"\t\tprint them if Nachos terminates because of an exception.\n" +
+	"\n" +
 	"\t-h\n" +
 	"\t\tPrint this help message.\n" +
 	"\n" +
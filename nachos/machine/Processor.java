@@ -4,6 +4,8 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.util.ArrayList;
+
 /**
  * The <tt>Processor</tt> class simulates a MIPS processor that supports a
  * subset of the R3000 instruction set. Specifically, the processor lacks all
@@ -42,10 +44,16 @@ public final class Processor {
 
 		this.numPhysPages = numPhysPages;
 
+		String engine = Config.getString("Processor.engine", "interpreter");
+		Lib.assertTrue(engine.equals("interpreter") || engine.equals("blocks"),
+				"unknown Processor.engine: " + engine);
+		usingBlocks = engine.equals("blocks");
+
 		for (int i = 0; i < numUserRegisters; i++)
 			registers[i] = 0;
 
 		mainMemory = new byte[pageSize * numPhysPages];
+		decodedPages = new Decoded[numPhysPages][];
 
 		if (usingTLB) {
 			translations = new TranslationEntry[tlbSize];
@@ -83,6 +91,12 @@ public final class Processor {
 
 	/**
 	 * Start executing instructions at the current PC. Never returns.
+	 * 
+	 * <p>
+	 * If the <tt>nachos.conf</tt> key <tt>Processor.engine</tt> is
+	 * <tt>blocks</tt>, instructions are executed a basic block at a time
+	 * (see <tt>runBlock()</tt>); otherwise, and whenever processor or
+	 * disassembly debugging is enabled, they are interpreted one at a time.
 	 */
 	public void run() {
 		Lib.debug(dbgProcessor, "starting program in current thread");
@@ -93,10 +107,35 @@ public final class Processor {
 
 		Instruction inst = new Instruction();
 
+		if (usingBlocks && !Lib.test(dbgProcessor)
+				&& !Lib.test(dbgDisassemble) && !Lib.test(dbgFullDisassemble)) {
+			while (true) {
+				try {
+					runBlock(inst);
+				} catch (MipsException e) {
+					e.handle();
+					privilege.interrupt.tick(false);
+				}
+			}
+		}
+
 		while (true) {
+			// run as many instructions as possible before the next interrupt
+			// is due, and account for their time all at once
+			long batch = privilege.interrupt.ticksBeforeDue();
+			long executed = 0;
+
 			try {
+				while (executed < batch) {
+					inst.run();
+					executed++;
+				}
+
+				privilege.interrupt.addUserTicks(executed);
+				executed = 0;
 				inst.run();
 			} catch (MipsException e) {
+				privilege.interrupt.addUserTicks(executed);
 				e.handle();
 			}
 
@@ -178,6 +217,7 @@ public final class Processor {
 		Lib.assertTrue(!usingTLB);
 
 		this.translations = pageTable;
+		flushTranslationCache();
 	}
 
 	/**
@@ -222,6 +262,7 @@ public final class Processor {
 		Lib.assertTrue(number >= 0 && number < tlbSize);
 
 		translations[number] = new TranslationEntry(entry);
+		flushTranslationCache();
 	}
 
 	/**
@@ -234,6 +275,31 @@ public final class Processor {
 		return numPhysPages;
 	}
 
+	/**
+	 * Report how many pages of physical memory the kernel currently has free
+	 * and in use, so that they are included in the statistics printed when
+	 * Nachos halts.
+	 * 
+	 * @param numFree the number of free physical pages.
+	 * @param numUsed the number of allocated physical pages.
+	 */
+	public void reportPhysPages(int numFree, int numUsed) {
+		Lib.assertTrue(numFree >= 0 && numUsed >= 0
+				&& numFree + numUsed <= numPhysPages);
+
+		privilege.stats.numFreePhysPages = numFree;
+		privilege.stats.numUsedPhysPages = numUsed;
+	}
+
+	/**
+	 * Count a page fault serviced by the kernel. When using a TLB, the
+	 * processor only sees TLB misses, so a kernel that pages on demand reports
+	 * the faults it services here.
+	 */
+	public void reportPageFault() {
+		privilege.stats.numPageFaults++;
+	}
+
 	/**
 	 * Return a reference to the physical memory array. The size of this array
 	 * is <tt>pageSize * getNumPhysPages()</tt>.
@@ -244,6 +310,22 @@ public final class Processor {
 		return mainMemory;
 	}
 
+	/**
+	 * Discard any predecoded instructions cached for the specified physical
+	 * page. The processor caches the decoded form of every instruction it
+	 * fetches, so anything that modifies a page of main memory through
+	 * <tt>getMemory()</tt> must call this method afterwards. Stores executed
+	 * by the processor itself invalidate the page automatically.
+	 * 
+	 * @param ppn
+	 *            the physical page whose contents changed.
+	 */
+	public void invalidatePage(int ppn) {
+		Lib.assertTrue(ppn >= 0 && ppn < numPhysPages);
+
+		decodedPages[ppn] = null;
+	}
+
 	/**
 	 * Concatenate a page number and an offset into an address.
 	 * 
@@ -288,6 +370,420 @@ public final class Processor {
 		delayedLoad(0, 0, 0);
 	}
 
+	/**
+	 * Return the decoded instruction at the specified physical address,
+	 * decoding it if it is not already cached.
+	 * 
+	 * @param paddr
+	 *            the word-aligned physical address of the instruction.
+	 * @return the decoded instruction.
+	 */
+	private Decoded decodeAt(int paddr) {
+		Decoded[] page = decodedPages[paddr / pageSize];
+		if (page == null) {
+			page = new Decoded[pageSize / 4];
+			decodedPages[paddr / pageSize] = page;
+		}
+
+		int index = (paddr % pageSize) / 4;
+		Decoded decoded = page[index];
+		if (decoded == null) {
+			decoded = new Decoded(Lib.bytesToInt(mainMemory, paddr));
+			page[index] = decoded;
+		}
+
+		return decoded;
+	}
+
+	/**
+	 * Execute the basic block starting at the current PC, advancing simulated
+	 * time by exactly one tick per instruction, as the interpreter does. The
+	 * ticks of instructions before the next interrupt deadline are added in
+	 * bulk; the block ends with the instruction whose tick reaches the
+	 * deadline.
+	 * 
+	 * <p>
+	 * Only the first instruction of the block is fetched through
+	 * <tt>translate()</tt>. The rest of the block lies on the same physical
+	 * page, and its translation cannot change until an interrupt handler or
+	 * the exception handler runs, both of which end the block. The block is
+	 * also abandoned as soon as the PC leaves the straight-line path (for
+	 * example, when the block was entered at a branch delay slot) or the page
+	 * is written.
+	 * 
+	 * @param inst
+	 *            the interpreter used for instructions that are not
+	 *            specialized.
+	 * @exception MipsException
+	 *                if an instruction caused an exception. Simulated time has
+	 *                not yet been advanced for that instruction.
+	 */
+	private void runBlock(Instruction inst) throws MipsException {
+		int pc = registers[regPC];
+		int paddr = translate(pc, 4, false);
+		int ppn = paddr / pageSize;
+
+		Decoded first = decodeAt(paddr);
+		if (first.block == null)
+			first.block = compileBlock(paddr);
+
+		Decoded[] page = decodedPages[ppn];
+		BlockOp[] block = first.block;
+		long batch = privilege.interrupt.ticksBeforeDue();
+		int executed = 0;
+
+		for (int i = 0; i < block.length; i++) {
+			try {
+				block[i].execute(inst);
+			} catch (MipsException e) {
+				privilege.interrupt.addUserTicks(executed);
+				throw e;
+			}
+
+			if (executed == batch) {
+				privilege.interrupt.addUserTicks(executed);
+				privilege.interrupt.tick(false);
+				return;
+			}
+
+			executed++;
+
+			pc += 4;
+			if (registers[regPC] != pc || decodedPages[ppn] != page)
+				break;
+		}
+
+		privilege.interrupt.addUserTicks(executed);
+	}
+
+	/**
+	 * Compile the basic block starting at the specified physical address. The
+	 * block ends after the delay slot of the first branch or jump, after the
+	 * first instruction that always causes an exception, or at the end of the
+	 * page, whichever comes first.
+	 * 
+	 * @param paddr
+	 *            the physical address of the first instruction in the block.
+	 * @return the compiled instructions of the block.
+	 */
+	private BlockOp[] compileBlock(int paddr) {
+		ArrayList<BlockOp> block = new ArrayList<BlockOp>();
+		int end = (paddr / pageSize + 1) * pageSize;
+		boolean delaySlot = false;
+
+		for (int addr = paddr; addr < end; addr += 4) {
+			Decoded decoded = decodeAt(addr);
+			if (decoded.compiled == null)
+				decoded.compiled = compile(decoded);
+
+			block.add(decoded.compiled);
+
+			if (delaySlot || decoded.operation == Mips.SYSCALL
+					|| decoded.operation == Mips.UNIMPL
+					|| decoded.operation == Mips.INVALID)
+				break;
+
+			delaySlot = Lib.test(Mips.BRANCH, decoded.flags);
+		}
+
+		return block.toArray(new BlockOp[block.size()]);
+	}
+
+	/**
+	 * Compile a decoded instruction into an operation specialized for its
+	 * opcode and operands. Each operation must have exactly the effect the
+	 * interpreter would have, including the interpreter's treatment of the
+	 * <tt>UNSIGNED</tt> flag. Instructions that can overflow, that use
+	 * <tt>hi</tt> and <tt>lo</tt>, that access unaligned words, or that always
+	 * cause an exception are left to the interpreter.
+	 * 
+	 * @param decoded
+	 *            the instruction to compile.
+	 * @return the compiled instruction.
+	 */
+	private BlockOp compile(final Decoded decoded) {
+		final int rs = decoded.rs, rt = decoded.rt, sh = decoded.sh;
+		final int dstReg = decoded.dstReg, size = decoded.size;
+		final boolean unsigned = Lib.test(Mips.UNSIGNED, decoded.flags);
+		final boolean link = Lib.test(Mips.LINK, decoded.flags);
+		final int imm = unsigned ? decoded.imm & 0xFFFF : decoded.imm;
+		final int offset = decoded.imm << 2;
+		final int target = decoded.target << 2;
+
+		BlockOp interpreted = new BlockOp() {
+			void execute(Instruction inst) throws MipsException {
+				inst.run(decoded);
+			}
+		};
+
+		if (Lib.test(Mips.OVERFLOW, decoded.flags)
+				|| (link && decoded.operation != Mips.JUMP))
+			return interpreted;
+
+		boolean immediate = Lib.test(Mips.SRC2IMM, decoded.flags);
+		boolean shiftImmediate = Lib.test(Mips.SRC1SH, decoded.flags);
+
+		switch (decoded.operation) {
+		case Mips.ADD:
+			if (immediate)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						retire(dstReg, registers[rs] + imm);
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, registers[rs] + registers[rt]);
+				}
+			};
+		case Mips.SUB:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, registers[rs] - registers[rt]);
+				}
+			};
+		case Mips.AND:
+			if (immediate)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						retire(dstReg, registers[rs] & imm);
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, registers[rs] & registers[rt]);
+				}
+			};
+		case Mips.OR:
+			if (immediate)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						retire(dstReg, registers[rs] | imm);
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, registers[rs] | registers[rt]);
+				}
+			};
+		case Mips.XOR:
+			if (immediate)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						retire(dstReg, registers[rs] ^ imm);
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, registers[rs] ^ registers[rt]);
+				}
+			};
+		case Mips.NOR:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, ~(registers[rs] | registers[rt]));
+				}
+			};
+		case Mips.LUI:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, imm << 16);
+				}
+			};
+		case Mips.SLT:
+			if (immediate && unsigned)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						long src1 = registers[rs] & 0xFFFFFFFFL;
+						retire(dstReg, src1 < imm ? 1 : 0);
+					}
+				};
+			if (immediate)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						retire(dstReg, registers[rs] < imm ? 1 : 0);
+					}
+				};
+			if (unsigned)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						long src1 = registers[rs] & 0xFFFFFFFFL;
+						long src2 = registers[rt] & 0xFFFFFFFFL;
+						retire(dstReg, src1 < src2 ? 1 : 0);
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, registers[rs] < registers[rt] ? 1 : 0);
+				}
+			};
+		case Mips.SLL:
+			if (shiftImmediate)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						retire(dstReg, registers[rt] << sh);
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, registers[rt] << (registers[rs] & 0x1F));
+				}
+			};
+		case Mips.SRA:
+			if (shiftImmediate)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						retire(dstReg, registers[rt] >> sh);
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					retire(dstReg, registers[rt] >> (registers[rs] & 0x1F));
+				}
+			};
+		case Mips.SRL:
+			// like the interpreter, shift the sign-extended 64-bit operand
+			if (shiftImmediate)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						retire(dstReg, (int) ((long) registers[rt] >>> sh));
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					int amount = registers[rs] & 0x1F;
+					retire(dstReg, (int) ((long) registers[rt] >>> amount));
+				}
+			};
+		case Mips.BEQ:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					branch(registers[rs] == registers[rt], offset);
+				}
+			};
+		case Mips.BNE:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					branch(registers[rs] != registers[rt], offset);
+				}
+			};
+		case Mips.BLEZ:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					branch(registers[rs] <= 0, offset);
+				}
+			};
+		case Mips.BGTZ:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					branch(registers[rs] > 0, offset);
+				}
+			};
+		case Mips.BLTZ:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					branch(registers[rs] < 0, offset);
+				}
+			};
+		case Mips.BGEZ:
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					branch(registers[rs] >= 0, offset);
+				}
+			};
+		case Mips.JUMP:
+			if (decoded.format == Mips.RFMT)
+				return new BlockOp() {
+					void execute(Instruction inst) {
+						jump(registers[rs], link ? dstReg : 0);
+					}
+				};
+			return new BlockOp() {
+				void execute(Instruction inst) {
+					int region = registers[regNextPC] & 0xF0000000;
+					jump(region | target, link ? dstReg : 0);
+				}
+			};
+		case Mips.LOAD:
+			return new BlockOp() {
+				void execute(Instruction inst) throws MipsException {
+					int value = readMem(registers[rs] + imm, size);
+					if (!unsigned)
+						value = Lib.extend(value, 0, size * 8);
+
+					delayedLoad(dstReg, value, 0xFFFFFFFF);
+					advancePC(registers[regNextPC] + 4);
+				}
+			};
+		case Mips.STORE:
+			return new BlockOp() {
+				void execute(Instruction inst) throws MipsException {
+					writeMem(registers[rs] + imm, size, registers[rt]);
+					retire(0, 0);
+				}
+			};
+		default:
+			return interpreted;
+		}
+	}
+
+	/**
+	 * Complete an instruction that writes at most one register: finish the
+	 * delayed load in progress, write the result, and advance the PC.
+	 * 
+	 * @param dstReg
+	 *            the register to write, or 0 to write none.
+	 * @param result
+	 *            the value to write.
+	 */
+	private void retire(int dstReg, int result) {
+		if (loadTarget != 0)
+			finishLoad();
+
+		if (dstReg != 0)
+			registers[dstReg] = result;
+
+		advancePC(registers[regNextPC] + 4);
+	}
+
+	/**
+	 * Complete a conditional branch relative to the delay slot.
+	 * 
+	 * @param taken
+	 *            <tt>true</tt> if the branch is taken.
+	 * @param offset
+	 *            the byte offset of the target from the delay slot.
+	 */
+	private void branch(boolean taken, int offset) {
+		int nextPC = registers[regNextPC] + 4;
+		int jtarget = registers[regNextPC] + offset;
+
+		if (loadTarget != 0)
+			finishLoad();
+
+		advancePC(taken ? jtarget : nextPC);
+	}
+
+	/**
+	 * Complete an unconditional jump, optionally linking.
+	 * 
+	 * @param jtarget
+	 *            the jump target.
+	 * @param linkReg
+	 *            the register receiving the return address, or 0 for none.
+	 */
+	private void jump(int jtarget, int linkReg) {
+		int nextPC = registers[regNextPC] + 4;
+
+		if (loadTarget != 0)
+			finishLoad();
+
+		if (linkReg != 0)
+			registers[linkReg] = nextPC;
+
+		advancePC(jtarget);
+	}
+
 	/**
 	 * Translate a virtual address into a physical address, using either a page
 	 * table or a TLB. Check for alignment, make sure the virtual page is valid,
@@ -307,7 +803,8 @@ public final class Processor {
 	private int translate(int vaddr, int size, boolean writing)
 			throws MipsException {
 		if (Lib.test(dbgProcessor))
-			System.out.println("\ttranslate vaddr=0x" + Lib.toHexString(vaddr)
+			Lib.debug(dbgProcessor, "\ttranslate vaddr=0x"
+					+ Lib.toHexString(vaddr)
 					+ (writing ? ", write" : ", read..."));
 
 		// check alignment
@@ -320,6 +817,57 @@ public final class Processor {
 		int vpn = pageFromAddress(vaddr);
 		int offset = offsetFromAddress(vaddr);
 
+		// try the translation cache before the page table or TLB
+		int slot = vpn & (translationCacheSize - 1);
+		TranslationEntry entry = translationCache[slot];
+
+		if (entry == null || translationCacheVPNs[slot] != vpn
+				|| !entry.valid || (!usingTLB && translations[vpn] != entry)) {
+			entry = lookupTranslation(vpn, vaddr);
+
+			translationCache[slot] = entry;
+			translationCacheVPNs[slot] = vpn;
+		}
+
+		// check if trying to write a read-only page
+		if (entry.readOnly && writing) {
+			Lib.debug(dbgProcessor, "\t\tread-only exception");
+			throw new MipsException(exceptionReadOnly, vaddr);
+		}
+
+		// check if physical page number is out of range
+		int ppn = entry.ppn;
+		if (ppn < 0 || ppn >= numPhysPages) {
+			Lib.debug(dbgProcessor, "\t\tbad ppn");
+			throw new MipsException(exceptionBusError, vaddr);
+		}
+
+		// set used and dirty bits as appropriate
+		entry.used = true;
+		if (writing)
+			entry.dirty = true;
+
+		int paddr = (ppn * pageSize) + offset;
+
+		if (Lib.test(dbgProcessor))
+			Lib.debug(dbgProcessor, "\t\tpaddr=0x" + Lib.toHexString(paddr));
+		return paddr;
+	}
+
+	/**
+	 * Find the translation entry for a virtual page, in either the page table
+	 * or the TLB.
+	 * 
+	 * @param vpn
+	 *            the virtual page to look up.
+	 * @param vaddr
+	 *            the virtual address being translated.
+	 * @return the valid translation entry for <i>vpn</i>.
+	 * @exception MipsException
+	 *                if there is no such entry.
+	 */
+	private TranslationEntry lookupTranslation(int vpn, int vaddr)
+			throws MipsException {
 		TranslationEntry entry = null;
 
 		// if not using a TLB, then the vpn is an index into the table
@@ -348,29 +896,17 @@ public final class Processor {
 			}
 		}
 
-		// check if trying to write a read-only page
-		if (entry.readOnly && writing) {
-			Lib.debug(dbgProcessor, "\t\tread-only exception");
-			throw new MipsException(exceptionReadOnly, vaddr);
-		}
-
-		// check if physical page number is out of range
-		int ppn = entry.ppn;
-		if (ppn < 0 || ppn >= numPhysPages) {
-			Lib.debug(dbgProcessor, "\t\tbad ppn");
-			throw new MipsException(exceptionBusError, vaddr);
-		}
-
-		// set used and dirty bits as appropriate
-		entry.used = true;
-		if (writing)
-			entry.dirty = true;
-
-		int paddr = (ppn * pageSize) + offset;
+		return entry;
+	}
 
-		if (Lib.test(dbgProcessor))
-			System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
-		return paddr;
+	/**
+	 * Forget all cached translations. Called whenever the page table pointer
+	 * or a TLB entry changes, which includes every context switch between
+	 * processes.
+	 */
+	private void flushTranslationCache() {
+		for (int i = 0; i < translationCacheSize; i++)
+			translationCache[i] = null;
 	}
 
 	/**
@@ -387,8 +923,8 @@ public final class Processor {
 	 */
 	private int readMem(int vaddr, int size) throws MipsException {
 		if (Lib.test(dbgProcessor))
-			System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
-					+ ", size=" + size);
+			Lib.debug(dbgProcessor, "\treadMem vaddr=0x"
+					+ Lib.toHexString(vaddr) + ", size=" + size);
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
@@ -396,7 +932,7 @@ public final class Processor {
 				size);
 
 		if (Lib.test(dbgProcessor))
-			System.out.println("\t\tvalue read=0x"
+			Lib.debug(dbgProcessor, "\t\tvalue read=0x"
 					+ Lib.toHexString(value, size * 2));
 
 		return value;
@@ -417,13 +953,16 @@ public final class Processor {
 	 */
 	private void writeMem(int vaddr, int size, int value) throws MipsException {
 		if (Lib.test(dbgProcessor))
-			System.out.println("\twriteMem vaddr=0x" + Lib.toHexString(vaddr)
-					+ ", size=" + size + ", value=0x"
+			Lib.debug(dbgProcessor, "\twriteMem vaddr=0x"
+					+ Lib.toHexString(vaddr) + ", size=" + size + ", value=0x"
 					+ Lib.toHexString(value, size * 2));
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size, value);
+		int paddr = translate(vaddr, size, true);
+
+		Lib.bytesFromInt(mainMemory, paddr, size, value);
+		decodedPages[paddr / pageSize] = null;
 	}
 
 	/**
@@ -499,6 +1038,17 @@ public final class Processor {
 	/** Caused by an attempt to execute an illegal instruction. */
 	public static final int exceptionIllegalInstruction = 7;
 
+	/**
+	 * Finish the disassembly line being built with <i>text</i>, and print it
+	 * the way debug messages are printed, so that the debug buffer captures
+	 * it too.
+	 */
+	private void printDisassembly(String text) {
+		disassembly.append(text);
+		Lib.printDebug(disassembly.toString());
+		disassembly.setLength(0);
+	}
+
 	/** The names of the CPU exceptions. */
 	public static final String exceptionNames[] = { "syscall      ",
 			"page fault   ", "TLB miss     ", "read-only    ", "bus error    ",
@@ -559,6 +1109,21 @@ public final class Processor {
 	 */
 	private TranslationEntry[] translations;
 
+	/** Number of entries in the translation cache; a power of two. */
+	private static final int translationCacheSize = 16;
+	/**
+	 * A direct-mapped cache of recently used translation entries, indexed by
+	 * the low bits of the virtual page number. This is not part of the
+	 * simulated architecture: an entry is only a shortcut to the page table
+	 * or TLB entry that the lookup would find, so hits never change the
+	 * statistics. A page table entry is revalidated on every hit, because the
+	 * kernel may change or replace entries in place.
+	 */
+	private TranslationEntry[] translationCache =
+			new TranslationEntry[translationCacheSize];
+	/** The virtual page number cached in each translation cache entry. */
+	private int[] translationCacheVPNs = new int[translationCacheSize];
+
 	/** Size of a page, in bytes. */
 	public static final int pageSize = 0x400;
 	/** Number of pages in a 32-bit address space. */
@@ -567,10 +1132,23 @@ public final class Processor {
 	private int numPhysPages;
 	/** Main memory for user programs. */
 	private byte[] mainMemory;
+	/**
+	 * Predecoded instructions, indexed by physical page and then by word
+	 * within the page. A page's array is allocated the first time an
+	 * instruction is fetched from it, and dropped whenever the page is
+	 * written.
+	 */
+	private Decoded[][] decodedPages;
 
 	/** The kernel exception handler, called on every user exception. */
 	private Runnable exceptionHandler = null;
 
+	/** <tt>true</tt> if executing basic blocks instead of interpreting. */
+	private boolean usingBlocks;
+
+	/** The disassembly line of the instruction being executed, so far. */
+	private StringBuffer disassembly = new StringBuffer();
+
 	private static final char dbgProcessor = 'p';
 	private static final char dbgDisassemble = 'm';
 	private static final char dbgFullDisassemble = 'M';
@@ -602,7 +1180,7 @@ public final class Processor {
 				writeRegister(regBadVAddr, badVAddr);
 
 			if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
-				System.out.println("exception: " + exceptionNames[cause]);
+				printDisassembly("exception: " + exceptionNames[cause]);
 
 			finishLoad();
 
@@ -628,6 +1206,21 @@ public final class Processor {
 			writeBack();
 		}
 
+		/**
+		 * Execute an instruction that has already been fetched.
+		 * 
+		 * @param decoded
+		 *            the instruction at the current PC.
+		 */
+		public void run(Decoded decoded) throws MipsException {
+			this.decoded = decoded;
+			value = decoded.value;
+
+			decode();
+			execute();
+			writeBack();
+		}
+
 		private boolean test(int flag) {
 			return Lib.test(flag, flags);
 		}
@@ -635,65 +1228,45 @@ public final class Processor {
 		private void fetch() throws MipsException {
 			if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor))
 					|| Lib.test(dbgFullDisassemble))
-				System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
+				disassembly.append("PC=0x" + Lib.toHexString(registers[regPC])
 						+ "\t");
 
-			value = readMem(registers[regPC], 4);
-		}
+			if (Lib.test(dbgProcessor))
+				Lib.debug(dbgProcessor, "\treadMem vaddr=0x"
+						+ Lib.toHexString(registers[regPC]) + ", size=4");
 
-		private void decode() {
-			op = Lib.extract(value, 26, 6);
-			rs = Lib.extract(value, 21, 5);
-			rt = Lib.extract(value, 16, 5);
-			rd = Lib.extract(value, 11, 5);
-			sh = Lib.extract(value, 6, 5);
-			func = Lib.extract(value, 0, 6);
-			target = Lib.extract(value, 0, 26);
-			imm = Lib.extend(value, 0, 16);
+			decoded = decodeAt(translate(registers[regPC], 4, false));
+			value = decoded.value;
 
-			Mips info;
-			switch (op) {
-			case 0:
-				info = Mips.specialtable[func];
-				break;
-			case 1:
-				info = Mips.regimmtable[rt];
-				break;
-			default:
-				info = Mips.optable[op];
-				break;
-			}
+			if (Lib.test(dbgProcessor))
+				Lib.debug(dbgProcessor, "\t\tvalue read=0x"
+						+ Lib.toHexString(value, 8));
+		}
 
-			operation = info.operation;
-			name = info.name;
-			format = info.format;
-			flags = info.flags;
+		private void decode() {
+			op = decoded.op;
+			rs = decoded.rs;
+			rt = decoded.rt;
+			rd = decoded.rd;
+			sh = decoded.sh;
+			func = decoded.func;
+			target = decoded.target;
+			imm = decoded.imm;
+
+			operation = decoded.operation;
+			name = decoded.name;
+			format = decoded.format;
+			flags = decoded.flags;
 
 			mask = 0xFFFFFFFF;
 			branch = true;
 
-			// get memory access size
-			if (test(Mips.SIZEB))
-				size = 1;
-			else if (test(Mips.SIZEH))
-				size = 2;
-			else if (test(Mips.SIZEW))
-				size = 4;
-			else
-				size = 0;
+			size = decoded.size;
 
 			// get nextPC
 			nextPC = registers[regNextPC] + 4;
 
-			// get dstReg
-			if (test(Mips.DSTRA))
-				dstReg = regRA;
-			else if (format == Mips.IFMT)
-				dstReg = rt;
-			else if (format == Mips.RFMT)
-				dstReg = rd;
-			else
-				dstReg = -1;
+			dstReg = decoded.dstReg;
 
 			// get jtarget
 			if (format == Mips.RFMT)
@@ -737,16 +1310,17 @@ public final class Processor {
 		private void print() {
 			if (Lib.test(dbgDisassemble) && Lib.test(dbgProcessor)
 					&& !Lib.test(dbgFullDisassemble))
-				System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
+				disassembly.append("PC=0x" + Lib.toHexString(registers[regPC])
 						+ "\t");
 
 			if (operation == Mips.INVALID) {
-				System.out.print("invalid: op=" + Lib.toHexString(op, 2)
+				disassembly.append("invalid: op=" + Lib.toHexString(op, 2)
 						+ " rs=" + Lib.toHexString(rs, 2) + " rt="
 						+ Lib.toHexString(rt, 2) + " rd="
 						+ Lib.toHexString(rd, 2) + " sh="
 						+ Lib.toHexString(sh, 2) + " func="
-						+ Lib.toHexString(func, 2) + "\n");
+						+ Lib.toHexString(func, 2));
+				printDisassembly("");
 				return;
 			}
 
@@ -757,34 +1331,34 @@ public final class Processor {
 			String instname = name.substring(0, spaceIndex);
 			char[] args = name.substring(spaceIndex + 1).toCharArray();
 
-			System.out.print(instname + "\t");
+			disassembly.append(instname + "\t");
 
 			int minCharsPrinted = 0, maxCharsPrinted = 0;
 
 			for (int i = 0; i < args.length; i++) {
 				switch (args[i]) {
 				case Mips.RS:
-					System.out.print("$" + rs);
+					disassembly.append("$" + rs);
 					minCharsPrinted += 2;
 					maxCharsPrinted += 3;
 
 					if (Lib.test(dbgFullDisassemble)) {
-						System.out
-								.print("#0x" + Lib.toHexString(registers[rs]));
+						disassembly.append("#0x"
+								+ Lib.toHexString(registers[rs]));
 						minCharsPrinted += 11;
 						maxCharsPrinted += 11;
 					}
 					break;
 				case Mips.RT:
-					System.out.print("$" + rt);
+					disassembly.append("$" + rt);
 					minCharsPrinted += 2;
 					maxCharsPrinted += 3;
 
 					if (Lib.test(dbgFullDisassemble)
 							&& (i != 0 || !test(Mips.DST))
 							&& !test(Mips.DELAYEDLOAD)) {
-						System.out
-								.print("#0x" + Lib.toHexString(registers[rt]));
+						disassembly.append("#0x"
+								+ Lib.toHexString(registers[rt]));
 						minCharsPrinted += 11;
 						maxCharsPrinted += 11;
 					}
@@ -793,36 +1367,36 @@ public final class Processor {
 					if (rd == 31)
 						continue;
 				case Mips.RD:
-					System.out.print("$" + rd);
+					disassembly.append("$" + rd);
 					minCharsPrinted += 2;
 					maxCharsPrinted += 3;
 					break;
 				case Mips.IMM:
-					System.out.print(imm);
+					disassembly.append(imm);
 					minCharsPrinted += 1;
 					maxCharsPrinted += 6;
 					break;
 				case Mips.SHIFTAMOUNT:
-					System.out.print(sh);
+					disassembly.append(sh);
 					minCharsPrinted += 1;
 					maxCharsPrinted += 2;
 					break;
 				case Mips.ADDR:
-					System.out.print(imm + "($" + rs);
+					disassembly.append(imm + "($" + rs);
 					minCharsPrinted += 4;
 					maxCharsPrinted += 5;
 
 					if (Lib.test(dbgFullDisassemble)) {
-						System.out
-								.print("#0x" + Lib.toHexString(registers[rs]));
+						disassembly.append("#0x"
+								+ Lib.toHexString(registers[rs]));
 						minCharsPrinted += 11;
 						maxCharsPrinted += 11;
 					}
 
-					System.out.print(")");
+					disassembly.append(")");
 					break;
 				case Mips.TARGET:
-					System.out.print("0x" + Lib.toHexString(jtarget));
+					disassembly.append("0x" + Lib.toHexString(jtarget));
 					minCharsPrinted += 10;
 					maxCharsPrinted += 10;
 					break;
@@ -830,7 +1404,7 @@ public final class Processor {
 					Lib.assertTrue(false);
 				}
 				if (i + 1 < args.length) {
-					System.out.print(", ");
+					disassembly.append(", ");
 					minCharsPrinted += 2;
 					maxCharsPrinted += 2;
 				} else {
@@ -840,12 +1414,12 @@ public final class Processor {
 					// longest string is stj, which is 40-42 chars w/ -d M;
 					// go for 48
 					while ((minCharsPrinted % 8) != 0) {
-						System.out.print(" ");
+						disassembly.append(" ");
 						minCharsPrinted++;
 						maxCharsPrinted++;
 					}
 					while (minCharsPrinted < 48) {
-						System.out.print("\t");
+						disassembly.append("\t");
 						minCharsPrinted += 8;
 					}
 				}
@@ -853,7 +1427,7 @@ public final class Processor {
 
 			if (Lib.test(dbgDisassemble) && Lib.test(dbgProcessor)
 					&& !Lib.test(dbgFullDisassemble))
-				System.out.print("\n");
+				printDisassembly("");
 		}
 
 		private void execute() throws MipsException {
@@ -1045,9 +1619,9 @@ public final class Processor {
 
 			if ((test(Mips.DST) || test(Mips.DELAYEDLOAD)) && dstReg != 0) {
 				if (Lib.test(dbgFullDisassemble)) {
-					System.out.print("#0x" + Lib.toHexString((int) dst));
+					disassembly.append("#0x" + Lib.toHexString((int) dst));
 					if (test(Mips.DELAYEDLOAD))
-						System.out.print(" (delayed load)");
+						disassembly.append(" (delayed load)");
 				}
 			}
 
@@ -1059,10 +1633,11 @@ public final class Processor {
 
 			if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor))
 					|| Lib.test(dbgFullDisassemble))
-				System.out.print("\n");
+				printDisassembly("");
 		}
 
 		// state used to execute a single instruction
+		Decoded decoded;
 		int value, op, rs, rt, rd, sh, func, target, imm;
 		int operation, format, flags;
 		String name;
@@ -1074,6 +1649,88 @@ public final class Processor {
 		boolean branch;
 	}
 
+	/**
+	 * The parts of a decoded instruction that depend only on the instruction
+	 * word, and not on the state of the registers.
+	 */
+	private static class Decoded {
+		Decoded(int value) {
+			this.value = value;
+
+			op = Lib.extract(value, 26, 6);
+			rs = Lib.extract(value, 21, 5);
+			rt = Lib.extract(value, 16, 5);
+			rd = Lib.extract(value, 11, 5);
+			sh = Lib.extract(value, 6, 5);
+			func = Lib.extract(value, 0, 6);
+			target = Lib.extract(value, 0, 26);
+			imm = Lib.extend(value, 0, 16);
+
+			Mips info;
+			switch (op) {
+			case 0:
+				info = Mips.specialtable[func];
+				break;
+			case 1:
+				info = Mips.regimmtable[rt];
+				break;
+			default:
+				info = Mips.optable[op];
+				break;
+			}
+
+			operation = info.operation;
+			name = info.name;
+			format = info.format;
+			flags = info.flags;
+
+			// get memory access size
+			if (Lib.test(Mips.SIZEB, flags))
+				size = 1;
+			else if (Lib.test(Mips.SIZEH, flags))
+				size = 2;
+			else if (Lib.test(Mips.SIZEW, flags))
+				size = 4;
+			else
+				size = 0;
+
+			// get dstReg
+			if (Lib.test(Mips.DSTRA, flags))
+				dstReg = regRA;
+			else if (format == Mips.IFMT)
+				dstReg = rt;
+			else if (format == Mips.RFMT)
+				dstReg = rd;
+			else
+				dstReg = -1;
+		}
+
+		final int value, op, rs, rt, rd, sh, func, target, imm;
+		final int operation, format, flags;
+		final String name;
+
+		final int size, dstReg;
+
+		/** This instruction, compiled for use in basic blocks. */
+		BlockOp compiled;
+		/** The basic block starting at this instruction, once compiled. */
+		BlockOp[] block;
+	}
+
+	/**
+	 * A single instruction compiled for a specific opcode and operands, for
+	 * use by <tt>runBlock()</tt>.
+	 */
+	private abstract class BlockOp {
+		/**
+		 * Execute this instruction, whose address must be in the PC register.
+		 * 
+		 * @param inst
+		 *            the interpreter state of the current thread.
+		 */
+		abstract void execute(Instruction inst) throws MipsException;
+	}
+
 	private static class Mips {
 		Mips() {
 		}
@@ -29,6 +29,13 @@ public final class Stats {
 			   + ", TLB misses " + numTLBMisses);
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
+	if (numFreePhysPages + numUsedPhysPages > 0)
+	    System.out.println("Memory: pages free " + numFreePhysPages
+			       + ", used " + numUsedPhysPages);
+	if (numThreadPoolHits + numThreadPoolMisses > 0)
+	    System.out.println("Thread pool: hits " + numThreadPoolHits
+			       + ", misses " + numThreadPoolMisses
+			       + ", idle " + numPooledThreads);
     }
 
     /**
@@ -61,6 +68,17 @@ public final class Stats {
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
     public int numPacketsReceived = 0;
+    /** The number of physical pages the kernel last reported as free. */
+    public int numFreePhysPages = 0;
+    /** The number of physical pages the kernel last reported as in use. */
+    public int numUsedPhysPages = 0;
+
+    /** The number of TCBs started on a reused Java thread. */
+    public int numThreadPoolHits = 0;
+    /** The number of TCBs that needed a new Java thread. */
+    public int numThreadPoolMisses = 0;
+    /** The number of idle Java threads currently waiting to be reused. */
+    public int numPooledThreads = 0;
 
     /**
      * The amount to advance simulated time after each user instructions is
@@ -6,6 +6,8 @@ import nachos.security.*;
 import nachos.threads.KThread;
 
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
+import java.lang.reflect.Method;
 import java.security.PrivilegedAction;
 
 /**
@@ -14,6 +16,21 @@ import java.security.PrivilegedAction;
  * object.
  *
  * <p>
+ * The kind of JVM thread is specified by the <tt>nachos.conf</tt> key
+ * <tt>TCB.backend</tt>. The default, <tt>platform</tt>, gives every TCB its
+ * own operating system thread. The <tt>virtual</tt> backend runs every TCB
+ * on a JVM virtual thread (Java 21 or later), all sharing one carrier thread.
+ * Either way, the CPU is handed from one TCB to the next by passing a baton,
+ * using <tt>LockSupport.park()</tt> and <tt>unpark()</tt> rather than
+ * monitors, so a virtual thread releases its carrier while it waits.
+ *
+ * <p>
+ * When a TCB is destroyed, its Java thread is kept for reuse by a later TCB,
+ * up to the number given by the <tt>nachos.conf</tt> key
+ * <tt>TCB.threadPoolSize</tt> (16 by default, and 0 to disable reuse). The
+ * pool's hits and misses are reported in <tt>Stats</tt>.
+ *
+ * <p>
  * Do not use any methods in <tt>java.lang.Thread</tt>, as they are not
  * compatible with the TCB API. Most <tt>Thread</tt> methods will either crash
  * Nachos or have no useful effect.
@@ -40,6 +57,39 @@ public final class TCB {
     public static void givePrivilege(Privilege privilege) {
 	TCB.privilege = privilege;
 	privilege.tcb = new TCBPrivilege();
+
+	String backend = Config.getString("TCB.backend", "platform");
+	Lib.assertTrue(backend.equals("platform") || backend.equals("virtual"),
+		       "unknown TCB.backend: " + backend);
+	usingVirtualThreads = backend.equals("virtual");
+
+	threadPoolSize = Config.getInteger("TCB.threadPoolSize", 16);
+	Lib.assertTrue(threadPoolSize >= 0, "negative TCB.threadPoolSize");
+
+	if (usingVirtualThreads) {
+	    /* Only one TCB runs at a time, so one carrier thread is enough.
+	     * Capping the pool also stops the scheduler from adding carriers
+	     * when a virtual thread blocks in I/O, which it would do without
+	     * privilege.
+	     */
+	    String[] keys = { "jdk.virtualThreadScheduler.parallelism",
+			      "jdk.virtualThreadScheduler.maxPoolSize" };
+	    for (int i=0; i<keys.length; i++) {
+		if (System.getProperty(keys[i]) == null)
+		    System.setProperty(keys[i], "1");
+	    }
+
+	    // look these up now, since the security manager is not yet enabled
+	    try {
+		virtualThreadBuilder =
+		    Thread.class.getMethod("ofVirtual").invoke(null);
+		unstartedMethod = Class.forName("java.lang.Thread$Builder")
+		    .getMethod("unstarted", Runnable.class);
+	    }
+	    catch (Exception e) {
+		Lib.assertNotReached("TCB.backend = virtual requires Java 21");
+	    }
+	}
     }
     
     /**
@@ -86,29 +136,44 @@ public final class TCB {
 	this.target = target;
 
 	if (!isFirstTCB) {
-	    /* If this is not the first TCB, we have to make a new Java thread
-	     * to run it. Creating Java threads is a privileged operation.
+	    /* If this is not the first TCB, we need a Java thread to run it.
+	     * We reuse one left by a destroyed TCB if we can, and otherwise
+	     * make a new one. Creating Java threads is a privileged operation.
 	     */
-	    tcbTarget = new Runnable() {
-		    public void run() { threadroot(); }
-		};
+	    Stats stats = privilege.stats;
+	    boolean reused = !idleHosts.isEmpty();
 
-	    privilege.doPrivileged(new Runnable() {
-		    public void run() { javaThread = new Thread(tcbTarget); }
-		});
+	    if (reused) {
+		host = idleHosts.remove(idleHosts.size() - 1);
+		stats.numThreadPoolHits++;
+	    }
+	    else {
+		host = new Host();
+		privilege.doPrivileged(new Runnable() {
+			public void run() { host.thread = newThread(host); }
+		    });
+		stats.numThreadPoolMisses++;
+	    }
+	    stats.numPooledThreads = idleHosts.size();
+
+	    javaThread = host.thread;
 
-	    /* The Java thread hasn't yet started, but we need to get it
-	     * blocking in yield(). We do this by temporarily turning off the
-	     * current TCB, starting the new Java thread, and waiting for it
-	     * to wake us up from threadroot(). Once the new TCB wakes us up,
-	     * it's safe to context switch to the new TCB.
+	    /* The Java thread isn't yet running this TCB, but we need to get it
+	     * blocking in yield(). We do this by temporarily taking the baton
+	     * from the current TCB, starting or unparking the Java thread, and
+	     * waiting for it to wake us up from threadroot(). Once the new TCB
+	     * wakes us up, it's safe to context switch to the new TCB.
 	     */
-	    currentTCB.running = false;
-	    
-	    this.javaThread.start();
+	    baton = null;
+	    host.tcb = this;
+
+	    if (reused)
+		LockSupport.unpark(javaThread);
+	    else
+		javaThread.start();
 	    currentTCB.waitForInterrupt();
 	}
-	else {
+	else if (!usingVirtualThreads) {
 	    /* This is the first TCB, so we don't need to make a new Java
 	     * thread to run it; we just steal the current Java thread.
 	     */
@@ -117,6 +182,27 @@ public final class TCB {
 	    /* All we have to do now is invoke threadroot() directly. */
 	    threadroot();
 	}
+	else {
+	    /* This is the first TCB, but it needs a virtual thread anyway, so
+	     * that the single carrier thread is busy whenever any TCB runs.
+	     * An idle carrier thread eventually exits, and a TCB could not
+	     * create another without privilege. The current Java thread has
+	     * nothing left to do, but virtual threads do not keep the JVM
+	     * alive, so it waits for Nachos to exit.
+	     */
+	    tcbTarget = new Runnable() {
+		    public void run() { threadroot(); }
+		};
+
+	    privilege.doPrivileged(new Runnable() {
+		    public void run() { javaThread = newThread(tcbTarget); }
+		});
+
+	    javaThread.start();
+
+	    while (true)
+		LockSupport.park();
+	}
     }
 
     /**
@@ -149,14 +235,13 @@ public final class TCB {
 	/* There are some synchronization concerns here. As soon as we wake up
 	 * the next thread, we cannot assume anything about static variables,
 	 * or about any TCB's state. Therefore, before waking up the next
-	 * thread, we must latch the value of currentTCB, and set its running
-	 * flag to false (so that, in case we get interrupted before we call
-	 * yield(), the interrupt will set the running flag and yield() won't
-	 * block).
+	 * thread, we must latch the value of currentTCB. Handing the baton to
+	 * the next thread takes it from this one, so if we get interrupted
+	 * before we call yield(), the interrupt will hand it back and yield()
+	 * won't block.
 	 */
 
 	TCB previous = currentTCB;
-	previous.running = false;
 	
 	this.interrupt();
 	previous.yield();
@@ -181,7 +266,6 @@ public final class TCB {
 	toBeDestroyed = null;
 
 	this.done = true;
-	currentTCB.running = false;
 
 	this.interrupt();
 	currentTCB.waitForInterrupt();
@@ -213,10 +297,10 @@ public final class TCB {
 
 	if (!isFirstTCB) {
 	    /* start() is waiting for us to wake it up, signalling that it's OK
-	     * to context switch to us. We leave the running flag false so that
-	     * we'll still run if a context switch happens before we go to
-	     * sleep. All we have to do is wake up the current TCB and then
-	     * wait to get woken up by contextSwitch() or destroy().
+	     * to context switch to us. If a context switch happens before we go
+	     * to sleep, the baton will be ours and we'll still run. All we have
+	     * to do is wake up the current TCB and then wait to get woken up by
+	     * contextSwitch() or destroy().
 	     */
 	    
 	    currentTCB.interrupt();
@@ -228,7 +312,7 @@ public final class TCB {
 	     */
 	    
 	    currentTCB = this;
-	    running = true;
+	    baton = this;
 	}
 
 	try {
@@ -260,6 +344,60 @@ public final class TCB {
 	}
     }
 
+    /**
+     * A Java thread that can run one TCB after another. After the TCB it is
+     * running is destroyed, it either waits in <tt>idleHosts</tt> to be given
+     * another, or, if the pool is full, terminates.
+     */
+    private static class Host implements Runnable {
+	public void run() {
+	    while (true) {
+		tcb.threadroot();
+
+		if (!pooled)
+		    return;
+
+		while (tcb == null)
+		    LockSupport.park(this);
+	    }
+	}
+
+	/**
+	 * Called in the Java thread of a TCB that is being destroyed, while it
+	 * still holds the baton. Adds this host to the pool if there is room.
+	 */
+	void release() {
+	    tcb = null;
+
+	    pooled = (idleHosts.size() < threadPoolSize);
+	    if (pooled)
+		idleHosts.add(this);
+
+	    privilege.stats.numPooledThreads = idleHosts.size();
+	}
+
+	Thread thread;
+	/** The TCB to run next, or <tt>null</tt> while pooled. */
+	volatile TCB tcb = null;
+	boolean pooled = false;
+    }
+
+    /**
+     * Create a Java thread of the kind selected by <tt>TCB.backend</tt>.
+     * Creating Java threads is a privileged operation.
+     */
+    private static Thread newThread(Runnable target) {
+	if (!usingVirtualThreads)
+	    return new Thread(target);
+
+	try {
+	    return (Thread) unstartedMethod.invoke(virtualThreadBuilder, target);
+	}
+	catch (Exception e) {
+	    throw new Error(e);
+	}
+    }
+
     /**
      * Invoked by threadroot() and by contextSwitch() when it is necessary to
      * wait for another TCB to context switch to this TCB. Since this TCB
@@ -272,6 +410,10 @@ public final class TCB {
 	waitForInterrupt();
 	
 	if (done) {
+	    // pool our Java thread before anything else can start a TCB
+	    if (host != null)
+		host.release();
+
 	    currentTCB.interrupt();
 	    throw new ThreadDeath();
 	}
@@ -280,29 +422,28 @@ public final class TCB {
     }
 
     /**
-     * Waits on the monitor bound to this TCB until its <tt>running</tt> flag
-     * is set to <tt>true</tt>. <tt>waitForInterrupt()</tt> is used whenever a
-     * TCB needs to go to wait for its turn to run. This includes the ping-pong
-     * process of starting and destroying TCBs, as well as in context switching
-     * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
-     * is updated by <tt>contextSwitch()</tt> before we get called.
+     * Parks the Java thread bound to this TCB until this TCB holds the baton.
+     * <tt>waitForInterrupt()</tt> is used whenever a TCB needs to go to wait
+     * for its turn to run. This includes the ping-pong process of starting
+     * and destroying TCBs, as well as in context switching from this TCB to
+     * another. We don't rely on <tt>currentTCB</tt>, since it is updated by
+     * <tt>contextSwitch()</tt> before we get called.
      */
-    private synchronized void waitForInterrupt() {
-	while (!running) {
-	    try { wait(); }
-	    catch (InterruptedException e) { }
-	}
+    private void waitForInterrupt() {
+	// unpark() may come first, in which case park() returns at once, and
+	// park() may return spuriously, so check the baton every time
+	while (baton != this)
+	    LockSupport.park(this);
     }
 
     /**
-     * Wake up this TCB by setting its <tt>running</tt> flag to <tt>true</tt>
-     * and signalling the monitor bound to it. Used in the ping-pong process of
-     * starting and destroying TCBs, as well as in context switching to this
-     * TCB.
+     * Wake up this TCB by handing it the baton and unparking its Java thread.
+     * Used in the ping-pong process of starting and destroying TCBs, as well
+     * as in context switching to this TCB.
      */
-    private synchronized void interrupt() {
-	running = true;
-	notify();
+    private void interrupt() {
+	baton = this;
+	LockSupport.unpark(javaThread);
     }
 
     private void associateThread(KThread thread) {
@@ -364,6 +505,31 @@ public final class TCB {
     private static Privilege privilege;
     private static KThread toBeDestroyed = null;
 
+    /**
+     * The TCB whose Java thread ought to be running. This is an entirely
+     * different condition from membership in <tt>runningThreads</tt>, which
+     * contains all TCB objects that have started and have not terminated.
+     * Exactly one Java thread may run Nachos code at a time, and it is the
+     * one bound to <tt>baton</tt>. When starting or destroying a TCB, the
+     * baton is temporarily held by a TCB other than the current TCB, and
+     * while a new TCB's Java thread starts, by none. Volatile, so that
+     * everything a thread did before handing over the baton is visible to
+     * the thread that receives it.
+     */
+    private static volatile TCB baton = null;
+
+    /** The maximum number of idle Java threads kept for reuse. */
+    private static int threadPoolSize;
+    /** Java threads whose TCBs were destroyed, waiting to be reused. */
+    private static Vector<Host> idleHosts = new Vector<Host>();
+
+    /** <tt>true</tt> if TCBs after the first run on virtual threads. */
+    private static boolean usingVirtualThreads = false;
+    /** A <tt>Thread.Builder.OfVirtual</tt>, if using virtual threads. */
+    private static Object virtualThreadBuilder = null;
+    /** <tt>Thread.Builder.unstarted(Runnable)</tt>. */
+    private static Method unstartedMethod = null;
+
     /**
      * <tt>true</tt> if and only if this TCB is the first TCB to start, the one
      * started in <tt>Machine.main(String[])</tt>. Initialized by
@@ -380,15 +546,11 @@ public final class TCB {
     private Thread javaThread = null;
 
     /**
-     * <tt>true</tt> if and only if the Java thread bound to this TCB ought to
-     * be running. This is an entirely different condition from membership in
-     * <tt>runningThreads</tt>, which contains all TCB objects that have
-     * started and have not terminated. <tt>running</tt> is only <tt>true</tt>
-     * when the associated Java thread ought to run ASAP. When starting or
-     * destroying a TCB, this is temporarily true for a thread other than that
-     * of the current TCB.
+     * The reusable Java thread running this TCB, or <tt>null</tt> for the
+     * first TCB, whose Java thread is never reused.
      */
-    private boolean running = false;
+    private Host host = null;
+
 
     /**
      * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -13,7 +13,8 @@ import nachos.threads.*;
  * The post office uses a "postal worker" thread to wait for messages to arrive
  * from the network and to place them in the appropriate queues. This cannot
  * be done in the receive interrupt handler because each queue (implemented
- * with a <tt>SynchList</tt>) is protected by a lock.
+ * with a <tt>SynchList</tt>) is protected by a lock. The queues are bounded;
+ * a message for a full queue is dropped, like one lost by the network.
  */
 public class PostOffice {
     /**
@@ -24,11 +25,11 @@ public class PostOffice {
     public PostOffice() {
 	messageReceived = new Semaphore(0);
 	messageSent = new Semaphore(0);
-	sendLock = new Lock();
+	sendLock = new Lock("PostOffice.sendLock");
 
 	queues = new SynchList[MailMessage.portLimit];
 	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	    queues[i] = new SynchList(mailboxCapacity);
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -88,8 +89,12 @@ public class PostOffice {
 		System.out.println("delivering mail to port " + mail.dstPort
 				   + ": " + mail);
 
-	    // atomically add message to the mailbox and wake a waiting thread
-	    queues[mail.dstPort].add(mail);
+	    // atomically add message to the mailbox and wake a waiting thread.
+	    // If nobody is collecting mail on that port, drop the message,
+	    // rather than stall delivery to every other port
+	    if (!queues[mail.dstPort].offer(mail))
+		Lib.debug(dbgNet, "mailbox full, dropping mail to port "
+			  + mail.dstPort);
 	}
     }
 
@@ -126,6 +131,8 @@ public class PostOffice {
     }
 
     private SynchList[] queues;
+    /** The most messages a port's mailbox holds before mail is dropped. */
+    private static final int mailboxCapacity = 64;
     private Semaphore messageReceived;	// V'd when a message can be dequeued
     private Semaphore messageSent;	// V'd when a message can be queued
     private Lock sendLock;
@@ -0,0 +1,336 @@
+package nachos.proj1;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import nachos.machine.Machine;
+import nachos.machine.Stats;
+import nachos.threads.Alarm;
+import nachos.threads.Condition;
+import nachos.threads.Condition2;
+import nachos.threads.KThread;
+import nachos.threads.Lock;
+import nachos.threads.PriorityScheduler;
+import nachos.threads.Semaphore;
+import nachos.threads.ThreadedKernel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class AlarmTests {
+	/**
+	 * Queue for storing ordered results from test runs
+	 */
+	Queue<String> resultsQ = new LinkedList<String>();
+
+	/**
+	 * A timer interrupt comes at most this long after a deadline, give or take
+	 * the timer's jitter.
+	 */
+	static final long slack = 2 * Stats.TimerTicks;
+
+	/**
+	 * Yield until the results queue holds <i>size</i> results, or give up
+	 * after enough yields that the threads being waited for must be stuck.
+	 */
+	void yieldUntil(int size) {
+		for (int i = 0; i < 1000 && resultsQ.size() < size; i++)
+			KThread.yield();
+	}
+
+	/**
+	 * A thread sleeping longer than the whole timing wheel, with nothing else
+	 * to run, wakes right after its deadline once the idle machine skips
+	 * ahead.
+	 */
+	@Test
+	public void waitUntilAcrossWheelTurns() {
+		final long[] elapsed = new long[1];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				long start = Machine.timer().getTime();
+				ThreadedKernel.alarm.waitUntil(100000);
+				elapsed[0] = Machine.timer().getTime() - start;
+			}
+
+		});
+		assertTrue("Woke too early: " + elapsed[0], elapsed[0] >= 100000);
+		assertTrue("Woke too late: " + elapsed[0], elapsed[0] < 100000 + slack);
+	}
+
+	/**
+	 * Threads whose deadlines fall in different turns of the wheel wake in
+	 * deadline order, not in the order they started waiting.
+	 */
+	@Test
+	public void waitUntilOrder() {
+		final long[] delays = { 40000, 5000, 20000 };
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < delays.length; i++) {
+					final long delay = delays[i];
+					new KThread(new Runnable() {
+						public void run() {
+							ThreadedKernel.alarm.waitUntil(delay);
+							resultsQ.add("woke:" + delay);
+						}
+					}).setName("sleeper " + delay).fork();
+				}
+
+				ThreadedKernel.alarm.waitUntil(50000);
+				yieldUntil(delays.length);
+			}
+
+		});
+		assertEquals("First wake-up", "woke:5000", resultsQ.poll());
+		assertEquals("Second wake-up", "woke:20000", resultsQ.poll());
+		assertEquals("Third wake-up", "woke:40000", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * Cancelling a timeout wakes the thread waiting in <tt>await()</tt> at
+	 * once, and <tt>await()</tt> reports that it did not expire.
+	 */
+	@Test
+	public void cancelWakesAwait() {
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				final Alarm.Timeout[] timeout = new Alarm.Timeout[1];
+
+				KThread waiter = new KThread(new Runnable() {
+					public void run() {
+						timeout[0] = ThreadedKernel.alarm.newTimeout(1000000);
+						long start = Machine.timer().getTime();
+						boolean expired = timeout[0].await();
+						long elapsed = Machine.timer().getTime() - start;
+						resultsQ.add("expired:" + expired);
+						resultsQ.add("quick:" + (elapsed < 10000));
+					}
+				}).setName("waiter");
+				waiter.fork();
+
+				KThread.yield();
+				resultsQ.add("pending:" + timeout[0].isPending());
+				resultsQ.add("cancelled:" + timeout[0].cancel());
+				resultsQ.add("pending:" + timeout[0].isPending());
+
+				yieldUntil(5);
+			}
+
+		});
+		assertEquals("pending:true", resultsQ.poll());
+		assertEquals("cancelled:true", resultsQ.poll());
+		assertEquals("pending:false", resultsQ.poll());
+		assertEquals("expired:false", resultsQ.poll());
+		assertEquals("quick:true", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * A scheduled callback runs once its time comes, unless it is cancelled
+	 * first.
+	 */
+	@Test
+	public void scheduleAndCancel() {
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				Alarm.Timeout kept = ThreadedKernel.alarm.schedule(1000,
+						new Runnable() {
+							public void run() {
+								resultsQ.add("kept");
+							}
+						});
+				Alarm.Timeout cancelled = ThreadedKernel.alarm.schedule(1000,
+						new Runnable() {
+							public void run() {
+								resultsQ.add("cancelled");
+							}
+						});
+
+				resultsQ.add("cancel:" + cancelled.cancel());
+				ThreadedKernel.alarm.waitUntil(3000);
+
+				resultsQ.add("pending:" + kept.isPending());
+				resultsQ.add("cancel:" + cancelled.cancel());
+			}
+
+		});
+		assertEquals("First cancel failed", "cancel:true", resultsQ.poll());
+		assertEquals("kept", resultsQ.poll());
+		assertEquals("Expired timeout still pending", "pending:false",
+				resultsQ.poll());
+		assertEquals("Cancelled twice", "cancel:false", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * <tt>Condition.sleepFor()</tt> returns <tt>false</tt> after timing out,
+	 * and <tt>true</tt> when woken first.
+	 */
+	@Test
+	public void conditionSleepFor() {
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				final Lock lock = new Lock();
+				final Condition cv = new Condition(lock);
+
+				lock.acquire();
+				long start = Machine.timer().getTime();
+				resultsQ.add("woken:" + cv.sleepFor(2000));
+				long elapsed = Machine.timer().getTime() - start;
+				resultsQ.add("waited:" + (elapsed >= 2000));
+				lock.release();
+
+				new KThread(new Runnable() {
+					public void run() {
+						lock.acquire();
+						resultsQ.add("woken:" + cv.sleepFor(1000000));
+						lock.release();
+					}
+				}).setName("sleeper").fork();
+
+				KThread.yield();
+				lock.acquire();
+				cv.wake();
+				lock.release();
+
+				yieldUntil(3);
+			}
+
+		});
+		assertEquals("Timed-out wait reported a wake-up", "woken:false",
+				resultsQ.poll());
+		assertEquals("Timed out too early", "waited:true", resultsQ.poll());
+		assertEquals("woken:true", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * A thread that times out in <tt>Condition2.sleepFor()</tt> leaves the
+	 * condition's queue, so <tt>wake()</tt> wakes the thread behind it.
+	 */
+	@Test
+	public void condition2WakeAfterTimeout() {
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				final Lock lock = new Lock();
+				final Condition2 cv = new Condition2(lock);
+
+				new KThread(new Runnable() {
+					public void run() {
+						lock.acquire();
+						resultsQ.add("timed:" + cv.sleepFor(1000));
+						lock.release();
+					}
+				}).setName("timed sleeper").fork();
+
+				new KThread(new Runnable() {
+					public void run() {
+						lock.acquire();
+						cv.sleep();
+						resultsQ.add("sleeper:woken");
+						lock.release();
+					}
+				}).setName("sleeper").fork();
+
+				ThreadedKernel.alarm.waitUntil(5000);
+
+				lock.acquire();
+				resultsQ.add("before wake:" + resultsQ.size());
+				cv.wake();
+				lock.release();
+
+				yieldUntil(3);
+			}
+
+		});
+		assertEquals("timed:false", resultsQ.poll());
+		assertEquals("Sleeper woke before wake()", "before wake:1",
+				resultsQ.poll());
+		assertEquals("sleeper:woken", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * A thread that times out in <tt>Condition2.sleepFor()</tt> leaves no
+	 * priority donated to the thread last woken from the condition.
+	 */
+	@Test
+	public void condition2TimeoutLeavesNoDonation() {
+		assumeTrue(ThreadedKernel.scheduler instanceof PriorityScheduler);
+
+		final int[] priority = new int[1];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				final Lock lock = new Lock();
+				final Condition2 cv = new Condition2(lock);
+				final Semaphore done = new Semaphore(0);
+
+				KThread woken = new KThread(new Runnable() {
+					public void run() {
+						lock.acquire();
+						cv.sleep();
+						lock.release();
+						resultsQ.add("woken");
+						done.P();
+					}
+				}).setName("woken");
+				woken.fork();
+
+				KThread.yield();
+				lock.acquire();
+				cv.wake();
+				lock.release();
+				yieldUntil(1);
+
+				KThread timed = new KThread(new Runnable() {
+					public void run() {
+						lock.acquire();
+						resultsQ.add("timed:" + cv.sleepFor(1000));
+						lock.release();
+					}
+				}).setName("timed sleeper");
+
+				boolean intStatus = Machine.interrupt().disable();
+				ThreadedKernel.scheduler.setPriority(timed, 6);
+				Machine.interrupt().restore(intStatus);
+				timed.fork();
+
+				ThreadedKernel.alarm.waitUntil(5000);
+				yieldUntil(2);
+
+				intStatus = Machine.interrupt().disable();
+				priority[0] = ThreadedKernel.scheduler.getEffectivePriority(woken);
+				Machine.interrupt().restore(intStatus);
+
+				done.V();
+				KThread.yield();
+			}
+
+		});
+		assertEquals("woken", resultsQ.poll());
+		assertEquals("timed:false", resultsQ.poll());
+		assertEquals("Timed-out thread still donates", 1, priority[0]);
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+}
@@ -0,0 +1,87 @@
+package nachos.proj1;
+
+import nachos.threads.Channel;
+import nachos.threads.KThread;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelTests {
+	/**
+	 * Two senders each send a run of consecutive numbers in messages of up to
+	 * 7 words, and a receiver takes up to 5 words at a time. Each run must
+	 * arrive complete and in order.
+	 */
+	private void sendTwoRuns(final int capacity) {
+		final int[] next = { 0, 1000 };
+		final boolean[] inOrder = { true };
+		final int[] received = { 0 };
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				Channel channel = new Channel(capacity);
+
+				new KThread(new Producer(channel, 0, 100)).setName("sender 0")
+						.fork();
+				new KThread(new Producer(channel, 1000, 100)).setName(
+						"sender 1").fork();
+
+				int[] buf = new int[5];
+				while (received[0] < 200) {
+					int n = channel.receive(buf);
+					if (n <= 0) {
+						inOrder[0] = false;
+						break;
+					}
+
+					for (int i = 0; i < n; i++) {
+						int run = (buf[i] < 1000) ? 0 : 1;
+						if (buf[i] != next[run]++)
+							inOrder[0] = false;
+					}
+					received[0] += n;
+				}
+			}
+
+		});
+		assertEquals("Wrong number of words received", 200, received[0]);
+		assertTrue("Words arrived out of order", inOrder[0]);
+	}
+
+	@Test
+	public void bufferedChannel() {
+		sendTwoRuns(16);
+	}
+
+	@Test
+	public void rendezvousChannel() {
+		sendTwoRuns(0);
+	}
+
+	private static class Producer implements Runnable {
+		Producer(Channel channel, int first, int numWords) {
+			this.channel = channel;
+			this.first = first;
+			this.numWords = numWords;
+		}
+
+		public void run() {
+			int[] words = new int[7];
+
+			for (int sent = 0; sent < numWords;) {
+				int n = Math.min(words.length, numWords - sent);
+				for (int i = 0; i < n; i++)
+					words[i] = first + sent + i;
+
+				channel.send(words, 0, n);
+				sent += n;
+			}
+		}
+
+		private Channel channel;
+		private int first, numWords;
+	}
+}
@@ -0,0 +1,294 @@
+package nachos.proj1;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import nachos.machine.Machine;
+import nachos.threads.KThread;
+import nachos.threads.LotteryScheduler;
+import nachos.threads.Scheduler;
+import nachos.threads.ThreadQueue;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of <tt>LotteryScheduler</tt>'s queues, which keep their waiters'
+ * tickets in a Fenwick tree of 8 slots to start with. Each test drives a queue
+ * of its own directly, with threads that are never forked, so it does not
+ * depend on the scheduler the kernel runs with.
+ */
+public class LotterySchedulerTests {
+	/**
+	 * Queue for storing ordered results from test runs
+	 */
+	Queue<String> resultsQ = new LinkedList<String>();
+
+	/**
+	 * Return new threads, which are not forked, with the given tickets under
+	 * <i>scheduler</i>. Interrupts must be disabled.
+	 */
+	static KThread[] newThreads(Scheduler scheduler, int... tickets) {
+		KThread[] threads = new KThread[tickets.length];
+		for (int i = 0; i < tickets.length; i++) {
+			threads[i] = new KThread().setName("t" + i);
+			scheduler.setPriority(threads[i], tickets[i]);
+		}
+		return threads;
+	}
+
+	/**
+	 * Return the index of <i>thread</i> in <i>threads</i>, or -1.
+	 */
+	static int indexOf(KThread[] threads, KThread thread) {
+		for (int i = 0; i < threads.length; i++) {
+			if (threads[i] == thread)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * A queue with more waiters than it has slots grows, keeping their
+	 * tickets, and draws each of them once before it is empty.
+	 */
+	@Test
+	public void growPastInitialSlots() {
+		final int numThreads = 20;
+		final int[] counts = new int[numThreads];
+		final int[] tickets = new int[2];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				boolean intStatus = Machine.interrupt().disable();
+
+				LotteryScheduler scheduler = new LotteryScheduler();
+				ThreadQueue queue = scheduler.newThreadQueue(true);
+				KThread owner = new KThread().setName("owner");
+				int[] priorities = new int[numThreads];
+				for (int i = 0; i < numThreads; i++)
+					priorities[i] = i + 1;
+				KThread[] threads = newThreads(scheduler, priorities);
+
+				queue.acquire(owner);
+				for (KThread thread : threads)
+					queue.waitForAccess(thread);
+				tickets[0] = scheduler.getEffectivePriority(owner);
+
+				KThread next;
+				while ((next = queue.nextThread()) != null) {
+					int i = indexOf(threads, next);
+					if (i >= 0)
+						counts[i]++;
+				}
+				tickets[1] = scheduler.getEffectivePriority(owner);
+
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("Owner did not get every waiter's tickets", 1 + 210,
+				tickets[0]);
+		for (int i = 0; i < numThreads; i++)
+			assertEquals("t" + i + " drawn " + counts[i] + " times", 1,
+					counts[i]);
+		assertEquals("Old owner kept tickets", 1, tickets[1]);
+	}
+
+	/**
+	 * Threads that leave a queue free their slots for threads that arrive
+	 * later, and no thread is lost or drawn twice.
+	 */
+	@Test
+	public void reuseFreedSlots() {
+		final int numThreads = 12;
+		final int[] counts = new int[numThreads];
+		final int[] tickets = new int[2];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				boolean intStatus = Machine.interrupt().disable();
+
+				LotteryScheduler scheduler = new LotteryScheduler();
+				ThreadQueue queue = scheduler.newThreadQueue(true);
+				KThread owner = new KThread().setName("owner");
+				int[] priorities = new int[numThreads];
+				for (int i = 0; i < numThreads; i++)
+					priorities[i] = 3;
+				KThread[] threads = newThreads(scheduler, priorities);
+
+				queue.acquire(owner);
+				for (int i = 0; i < 8; i++)
+					queue.waitForAccess(threads[i]);
+
+				// free every other slot, then fill them again, and more
+				for (int i = 0; i < 8; i += 2)
+					queue.acquire(threads[i]);
+				queue.acquire(owner);
+				for (int i = 0; i < 8; i += 2)
+					queue.waitForAccess(threads[i]);
+				for (int i = 8; i < numThreads; i++)
+					queue.waitForAccess(threads[i]);
+				tickets[0] = scheduler.getEffectivePriority(owner);
+
+				// leaving and coming back takes the same slot again
+				for (int i = 0; i < numThreads; i++) {
+					queue.acquire(threads[i]);
+					queue.acquire(owner);
+					queue.waitForAccess(threads[i]);
+				}
+				tickets[1] = scheduler.getEffectivePriority(owner);
+
+				KThread next;
+				while ((next = queue.nextThread()) != null) {
+					int i = indexOf(threads, next);
+					if (i >= 0)
+						counts[i]++;
+				}
+
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("Owner's tickets miscounted", 1 + 3 * numThreads,
+				tickets[0]);
+		assertEquals("Owner's tickets miscounted after reuse",
+				1 + 3 * numThreads, tickets[1]);
+		for (int i = 0; i < numThreads; i++)
+			assertEquals("t" + i + " drawn " + counts[i] + " times", 1,
+					counts[i]);
+	}
+
+	/**
+	 * A lottery among the few slots left holding tickets, in a tree whose
+	 * other slots are empty, only ever draws the threads in those slots.
+	 */
+	@Test
+	public void drawSkipsEmptySlots() {
+		final int numThreads = 16;
+		final int draws = 200;
+		final int[] counts = new int[numThreads];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				boolean intStatus = Machine.interrupt().disable();
+
+				LotteryScheduler scheduler = new LotteryScheduler();
+				ThreadQueue queue = scheduler.newThreadQueue(false);
+				int[] priorities = new int[numThreads];
+				for (int i = 0; i < numThreads; i++)
+					priorities[i] = 100;
+				KThread[] threads = newThreads(scheduler, priorities);
+
+				for (KThread thread : threads)
+					queue.waitForAccess(thread);
+
+				// leave only the first, a middle and the last slot filled
+				for (int i = 0; i < numThreads; i++) {
+					if (i != 0 && i != 9 && i != numThreads - 1)
+						queue.acquire(threads[i]);
+				}
+				scheduler.setPriority(threads[0], 1);
+
+				for (int i = 0; i < draws; i++) {
+					KThread next = queue.nextThread();
+					int j = indexOf(threads, next);
+					if (j >= 0)
+						counts[j]++;
+					queue.waitForAccess(next);
+				}
+
+				// with one thread left, it wins every lottery
+				queue.acquire(threads[0]);
+				queue.acquire(threads[9]);
+				for (int i = 0; i < 3; i++) {
+					KThread next = queue.nextThread();
+					resultsQ.add(next.getName());
+					queue.waitForAccess(next);
+				}
+
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("Draws lost", draws,
+				counts[0] + counts[9] + counts[numThreads - 1]);
+		assertTrue("Slot 9 never drawn", counts[9] > 0);
+		assertTrue("Last slot never drawn", counts[numThreads - 1] > 0);
+		assertTrue("Single ticket drawn " + counts[0] + " times",
+				counts[0] < counts[9] && counts[0] < counts[numThreads - 1]);
+		for (int i = 0; i < 3; i++)
+			assertEquals("t" + (numThreads - 1), resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * A queue's total, which its owner gets, stays the sum of its waiters'
+	 * tickets as they change, whether set directly or donated along a chain
+	 * of queues, and as waiters leave.
+	 */
+	@Test
+	public void totalFollowsDonations() {
+		final int[] tickets = new int[7];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				boolean intStatus = Machine.interrupt().disable();
+
+				LotteryScheduler scheduler = new LotteryScheduler();
+				ThreadQueue lockQueue = scheduler.newThreadQueue(true);
+				ThreadQueue joinQueue = scheduler.newThreadQueue(true);
+				KThread[] threads = newThreads(scheduler, 1, 2, 3, 4);
+				KThread owner = threads[0], waiter = threads[1];
+
+				lockQueue.acquire(owner);
+				lockQueue.waitForAccess(waiter);
+				lockQueue.waitForAccess(threads[2]);
+				tickets[0] = scheduler.getEffectivePriority(owner);
+
+				scheduler.setPriority(waiter, 5);
+				tickets[1] = scheduler.getEffectivePriority(owner);
+
+				// a thread waiting on the waiter donates through it
+				joinQueue.acquire(waiter);
+				joinQueue.waitForAccess(threads[3]);
+				tickets[2] = scheduler.getEffectivePriority(owner);
+
+				scheduler.setPriority(threads[3], 1);
+				tickets[3] = scheduler.getEffectivePriority(owner);
+
+				// t2 takes over the lock, and t1 still waits
+				lockQueue.acquire(threads[2]);
+				tickets[4] = scheduler.getEffectivePriority(owner);
+				tickets[5] = scheduler.getEffectivePriority(threads[2]);
+
+				resultsQ.add(lockQueue.nextThread().getName());
+				tickets[6] = scheduler.getEffectivePriority(threads[2]);
+				resultsQ.add("" + lockQueue.nextThread());
+
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("Owner did not get waiters' tickets", 6, tickets[0]);
+		assertEquals("Waiter's new tickets not counted", 9, tickets[1]);
+		assertEquals("Donation not passed along the chain", 13, tickets[2]);
+		assertEquals("Smaller donation not passed along", 10, tickets[3]);
+		assertEquals("Old owner kept tickets", 1, tickets[4]);
+		assertEquals("New owner did not get waiters' tickets", 3 + 6,
+				tickets[5]);
+		assertEquals("Released owner kept tickets", 3, tickets[6]);
+		assertEquals("t1", resultsQ.poll());
+		assertEquals("null", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+}
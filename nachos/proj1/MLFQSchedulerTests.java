@@ -0,0 +1,283 @@
+package nachos.proj1;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import nachos.machine.Machine;
+import nachos.threads.KThread;
+import nachos.threads.MLFQScheduler;
+import nachos.threads.ThreadQueue;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of <tt>MLFQScheduler</tt>'s levels and counters. Each test uses a
+ * scheduler of its own, and calls its <tt>timerInterrupt()</tt> directly, so
+ * it does not depend on the scheduler the kernel runs with.
+ */
+public class MLFQSchedulerTests {
+	/**
+	 * Queue for storing ordered results from test runs
+	 */
+	Queue<String> resultsQ = new LinkedList<String>();
+
+	/**
+	 * An <tt>MLFQScheduler</tt> that keeps thread states to itself, rather
+	 * than in <tt>KThread.schedulingState</tt>, which belongs to the kernel's
+	 * scheduler. This lets a test charge ticks to the thread running it.
+	 */
+	static class TestMLFQScheduler extends MLFQScheduler {
+		protected ThreadState getThreadState(KThread thread) {
+			ThreadState state = states.get(thread);
+			if (state == null) {
+				state = new ThreadState(thread);
+				states.put(thread, state);
+			}
+			return state;
+		}
+
+		private HashMap<KThread, ThreadState> states = new HashMap<KThread, ThreadState>();
+	}
+
+	/**
+	 * Return a new scheduler that has just boosted every thread, so that the
+	 * next boost is a whole boost interval away.
+	 */
+	static TestMLFQScheduler newScheduler() {
+		TestMLFQScheduler scheduler = new TestMLFQScheduler();
+		advance(scheduler.getBoostInterval() - Machine.timer().getTime());
+		charge(scheduler);
+		return scheduler;
+	}
+
+	/**
+	 * Let at least <i>ticks</i> ticks pass, and at most one kernel tick more.
+	 */
+	static void advance(long ticks) {
+		long end = Machine.timer().getTime() + ticks;
+		while (Machine.timer().getTime() < end) {
+			Machine.interrupt().disable();
+			Machine.interrupt().enable();
+		}
+	}
+
+	/**
+	 * Call the scheduler's timer interrupt handler, charging the ticks since
+	 * the last call to the current thread.
+	 *
+	 * @return whether the current thread's time slice is over.
+	 */
+	static boolean charge(MLFQScheduler scheduler) {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean yield = scheduler.timerInterrupt();
+		Machine.interrupt().restore(intStatus);
+		return yield;
+	}
+
+	/**
+	 * Return the level of <i>thread</i>, 0 being the top level.
+	 */
+	static int level(MLFQScheduler scheduler, KThread thread) {
+		boolean intStatus = Machine.interrupt().disable();
+		int priority = scheduler.getPriority(thread);
+		Machine.interrupt().restore(intStatus);
+		return scheduler.getNumLevels() - 1 - priority;
+	}
+
+	static void setPriority(MLFQScheduler scheduler, KThread thread,
+			int priority) {
+		boolean intStatus = Machine.interrupt().disable();
+		scheduler.setPriority(thread, priority);
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * A thread moves down a level after running <tt>quantum &lt;&lt;
+	 * level</tt> ticks at a level, and the ticks are charged to the level it
+	 * ran at. At the bottom level its time slice ends, but it stays there.
+	 */
+	@Test
+	public void demotionAfterQuantum() {
+		final long[] ticks = new long[2];
+		final int[] demotions = new int[2];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				TestMLFQScheduler scheduler = newScheduler();
+				KThread current = KThread.currentThread();
+				int top = scheduler.getNumLevels() - 1;
+				long quantum = scheduler.getQuantum(0);
+
+				setPriority(scheduler, current, top);
+				int numDemotions = scheduler.getNumDemotions();
+				// each charge covers the ticks since the last one
+				long start = Machine.timer().getTime();
+				charge(scheduler);
+				long level0 = scheduler.getLevelTicks(0);
+				long level1 = scheduler.getLevelTicks(1);
+
+				advance(quantum / 2);
+				resultsQ.add("yield:" + charge(scheduler));
+				resultsQ.add("level:" + level(scheduler, current));
+				advance(quantum / 2);
+				long demoted = Machine.timer().getTime();
+				resultsQ.add("yield:" + charge(scheduler));
+				resultsQ.add("level:" + level(scheduler, current));
+
+				advance(quantum);
+				resultsQ.add("yield:" + charge(scheduler));
+				advance(quantum);
+				long end = Machine.timer().getTime();
+				resultsQ.add("yield:" + charge(scheduler));
+				resultsQ.add("level:" + level(scheduler, current));
+
+				demotions[0] = scheduler.getNumDemotions() - numDemotions;
+				ticks[0] = (scheduler.getLevelTicks(0) - level0)
+						- (demoted - start);
+				ticks[1] = (scheduler.getLevelTicks(1) - level1)
+						- (end - demoted);
+
+				setPriority(scheduler, current, 0);
+				numDemotions = scheduler.getNumDemotions();
+				advance(scheduler.getQuantum(top));
+				resultsQ.add("yield:" + charge(scheduler));
+				resultsQ.add("bottom:"
+						+ (level(scheduler, current) == top));
+				demotions[1] = scheduler.getNumDemotions() - numDemotions;
+			}
+
+		});
+		assertEquals("yield:false", resultsQ.poll());
+		assertEquals("level:0", resultsQ.poll());
+		assertEquals("Not preempted after a quantum", "yield:true",
+				resultsQ.poll());
+		assertEquals("Not demoted", "level:1", resultsQ.poll());
+		assertEquals("Level 1 slice not twice as long", "yield:false",
+				resultsQ.poll());
+		assertEquals("yield:true", resultsQ.poll());
+		assertEquals("level:2", resultsQ.poll());
+		assertEquals("Demotions not counted", 2, demotions[0]);
+		assertEquals("Level 0 ticks miscounted", 0, ticks[0]);
+		assertEquals("Level 1 ticks miscounted", 0, ticks[1]);
+		assertEquals("yield:true", resultsQ.poll());
+		assertEquals("Moved off the bottom level", "bottom:true",
+				resultsQ.poll());
+		assertEquals("Demotion counted at the bottom level", 0, demotions[1]);
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * A thread put in a queue by another thread, as when it is woken, moves
+	 * up a level. A thread that puts itself in a queue, as when it yields,
+	 * does not; nor does a thread already at the top level.
+	 */
+	@Test
+	public void promotionOnWake() {
+		final int[] promotions = new int[1];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				TestMLFQScheduler scheduler = newScheduler();
+				ThreadQueue queue = scheduler.newThreadQueue(false);
+				KThread current = KThread.currentThread();
+				KThread woken = new KThread().setName("woken");
+				KThread urgent = new KThread().setName("urgent");
+				int top = scheduler.getNumLevels() - 1;
+
+				setPriority(scheduler, woken, 0);
+				setPriority(scheduler, current, 0);
+				setPriority(scheduler, urgent, top);
+				int numPromotions = scheduler.getNumPromotions();
+
+				boolean intStatus = Machine.interrupt().disable();
+				queue.waitForAccess(woken);
+				queue.waitForAccess(current);
+				queue.waitForAccess(urgent);
+				Machine.interrupt().restore(intStatus);
+
+				promotions[0] = scheduler.getNumPromotions() - numPromotions;
+				resultsQ.add("woken:" + (top - level(scheduler, woken)));
+				resultsQ.add("yielded:" + (top - level(scheduler, current)));
+				resultsQ.add("urgent:" + level(scheduler, urgent));
+
+				intStatus = Machine.interrupt().disable();
+				for (KThread next; (next = queue.nextThread()) != null;)
+					resultsQ.add(next.getName());
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("Promotions miscounted", 1, promotions[0]);
+		assertEquals("Woken thread not promoted", "woken:1", resultsQ.poll());
+		assertEquals("Yielding thread promoted", "yielded:0", resultsQ.poll());
+		assertEquals("urgent:0", resultsQ.poll());
+		assertEquals("urgent", resultsQ.poll());
+		assertEquals("woken", resultsQ.poll());
+		assertEquals("main", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * Every boost interval, every thread moves back to level 0: threads not
+	 * waiting anywhere when they next look, and threads already waiting in a
+	 * queue in their current order, ahead of threads that arrive later.
+	 */
+	@Test
+	public void periodicBoost() {
+		final int[] boosts = new int[1];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				TestMLFQScheduler scheduler = newScheduler();
+				ThreadQueue queue = scheduler.newThreadQueue(false);
+				KThread current = KThread.currentThread();
+				KThread idle = new KThread().setName("idle");
+				KThread sunk = new KThread().setName("sunk");
+				KThread late = new KThread().setName("late");
+				int top = scheduler.getNumLevels() - 1;
+
+				setPriority(scheduler, current, 0);
+				setPriority(scheduler, idle, 0);
+				setPriority(scheduler, sunk, 0);
+				setPriority(scheduler, late, top);
+				int numBoosts = scheduler.getNumBoosts();
+
+				boolean intStatus = Machine.interrupt().disable();
+				queue.waitForAccess(sunk);
+				Machine.interrupt().restore(intStatus);
+
+				advance(scheduler.getBoostInterval());
+				resultsQ.add("yield:" + charge(scheduler));
+				boosts[0] = scheduler.getNumBoosts() - numBoosts;
+
+				// boosted to level 0, then demoted for the boost interval
+				resultsQ.add("current:" + level(scheduler, current));
+				resultsQ.add("idle:" + level(scheduler, idle));
+
+				intStatus = Machine.interrupt().disable();
+				queue.waitForAccess(late);
+				for (KThread next; (next = queue.nextThread()) != null;)
+					resultsQ.add(next.getName());
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("Boosts miscounted", 1, boosts[0]);
+		assertEquals("yield:true", resultsQ.poll());
+		assertEquals("Running thread not boosted", "current:1",
+				resultsQ.poll());
+		assertEquals("Idle thread not boosted", "idle:0", resultsQ.poll());
+		assertEquals("Waiting thread not boosted", "sunk", resultsQ.poll());
+		assertEquals("late", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+}
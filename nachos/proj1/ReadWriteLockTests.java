@@ -0,0 +1,282 @@
+package nachos.proj1;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import nachos.machine.Machine;
+import nachos.threads.KThread;
+import nachos.threads.PriorityScheduler;
+import nachos.threads.ReadWriteLock;
+import nachos.threads.Semaphore;
+import nachos.threads.ThreadedKernel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ReadWriteLockTests {
+	/**
+	 * Queue for storing ordered results from test runs
+	 */
+	Queue<String> resultsQ = new LinkedList<String>();
+
+	/**
+	 * Yield until the results queue holds <i>size</i> results, or give up
+	 * after enough yields that the threads being waited for must be stuck.
+	 */
+	void yieldUntil(int size) {
+		for (int i = 0; i < 1000 && resultsQ.size() < size; i++)
+			KThread.yield();
+	}
+
+	/**
+	 * Return the effective priority of <i>thread</i>.
+	 */
+	static int effective(KThread thread) {
+		boolean intStatus = Machine.interrupt().disable();
+		int priority = ThreadedKernel.scheduler.getEffectivePriority(thread);
+		Machine.interrupt().restore(intStatus);
+		return priority;
+	}
+
+	/**
+	 * Fork a thread with the given priority, which takes <i>lock</i> for
+	 * reading or writing, reports it, and releases it once <i>done</i> is
+	 * signalled.
+	 */
+	KThread fork(final String name, int priority, final ReadWriteLock lock,
+			final boolean write, final Semaphore done) {
+		KThread thread = new KThread(new Runnable() {
+			public void run() {
+				if (write)
+					lock.acquireWrite();
+				else
+					lock.acquireRead();
+				resultsQ.add(name + " in");
+
+				done.P();
+				if (write)
+					lock.releaseWrite();
+				else
+					lock.releaseRead();
+			}
+		}).setName(name);
+
+		boolean intStatus = Machine.interrupt().disable();
+		ThreadedKernel.scheduler.setPriority(thread, priority);
+		Machine.interrupt().restore(intStatus);
+
+		thread.fork();
+		return thread;
+	}
+
+	/**
+	 * Readers hold the lock together, but never while a writer does, and
+	 * writers hold it one at a time.
+	 */
+	@Test
+	public void readersShareWritersExclude() {
+		final int[] state = new int[4]; // readers, writers, violations, most readers
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				final ReadWriteLock lock = new ReadWriteLock();
+
+				for (int i = 0; i < 6; i++) {
+					final boolean write = (i % 3 == 2);
+					final String name = (write ? "writer " : "reader ") + i;
+					new KThread(new Runnable() {
+						public void run() {
+							for (int j = 0; j < 3; j++) {
+								if (write) {
+									lock.acquireWrite();
+									if (state[0] != 0 || state[1] != 0)
+										state[2]++;
+									state[1]++;
+								}
+								else {
+									lock.acquireRead();
+									if (state[1] != 0)
+										state[2]++;
+									state[0]++;
+									state[3] = Math.max(state[3], state[0]);
+								}
+
+								KThread.yield();
+								KThread.yield();
+
+								if (write) {
+									state[1]--;
+									lock.releaseWrite();
+								}
+								else {
+									state[0]--;
+									lock.releaseRead();
+								}
+								KThread.yield();
+							}
+							resultsQ.add(name + " done");
+						}
+					}).setName(name).fork();
+				}
+
+				yieldUntil(6);
+			}
+
+		});
+		assertEquals("Threads did not all finish", 6, resultsQ.size());
+		assertEquals("Mutual exclusion violated", 0, state[2]);
+		assertTrue("Readers never shared the lock", state[3] >= 2);
+	}
+
+	/**
+	 * A reader that arrives while a writer is waiting waits behind it, rather
+	 * than joining the readers that hold the lock.
+	 */
+	@Test
+	public void waitingWriterBlocksNewReaders() {
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				ReadWriteLock lock = new ReadWriteLock();
+				Semaphore done = new Semaphore(0);
+
+				lock.acquireRead();
+				fork("writer", 1, lock, true, done);
+				KThread.yield();
+				fork("reader", 1, lock, false, done);
+				KThread.yield();
+
+				resultsQ.add("waiting:" + resultsQ.size());
+				lock.releaseRead();
+				yieldUntil(2);
+
+				done.V();
+				yieldUntil(3);
+				done.V();
+				KThread.yield();
+
+				resultsQ.add("free:" + lock.tryAcquireWrite());
+				lock.releaseWrite();
+			}
+
+		});
+		assertEquals("Reader or writer got in early", "waiting:0",
+				resultsQ.poll());
+		assertEquals("writer in", resultsQ.poll());
+		assertEquals("reader in", resultsQ.poll());
+		assertEquals("free:true", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * A writer waiting for readers donates only to the readers that still
+	 * hold the lock, and stops donating to a reader once it releases.
+	 */
+	@Test
+	public void donationFollowsCurrentReaders() {
+		assumeTrue(ThreadedKernel.scheduler instanceof PriorityScheduler);
+
+		final int[] priority = new int[5];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				ReadWriteLock lock = new ReadWriteLock();
+				Semaphore done1 = new Semaphore(0);
+				Semaphore done2 = new Semaphore(0);
+				Semaphore doneWriter = new Semaphore(0);
+
+				KThread r1 = fork("r1", 1, lock, false, done1);
+				KThread r2 = fork("r2", 1, lock, false, done2);
+				yieldUntil(2);
+
+				done2.V();
+				KThread.yield();
+
+				fork("writer", 7, lock, true, doneWriter);
+				KThread.yield();
+				priority[0] = effective(r1);
+				priority[1] = effective(r2);
+
+				KThread r3 = fork("r3", 1, lock, false, done1);
+				KThread.yield();
+				priority[2] = effective(r3);
+
+				done1.V();
+				yieldUntil(3);
+				priority[3] = effective(r1);
+
+				doneWriter.V();
+				yieldUntil(4);
+				priority[4] = effective(r3);
+				done1.V();
+				KThread.yield();
+			}
+
+		});
+		assertEquals("Current reader not donated to", 7, priority[0]);
+		assertEquals("Released reader kept a donation", 1, priority[1]);
+		assertEquals("Waiting reader donated to", 1, priority[2]);
+		assertEquals("Released reader kept a donation", 1, priority[3]);
+		assertEquals("Reader boosted after lock freed", 1, priority[4]);
+		assertEquals("r1 in", resultsQ.poll());
+		assertEquals("r2 in", resultsQ.poll());
+		assertEquals("writer in", resultsQ.poll());
+		assertEquals("r3 in", resultsQ.poll());
+	}
+
+	/**
+	 * A writer holding the lock gets the priority of the threads waiting for
+	 * it, and gives it up when it releases the lock; the waiting writer then
+	 * donates to the readers admitted in its place.
+	 */
+	@Test
+	public void donationLeavesReleasedWriter() {
+		assumeTrue(ThreadedKernel.scheduler instanceof PriorityScheduler);
+
+		final int[] priority = new int[4];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				ReadWriteLock lock = new ReadWriteLock();
+				Semaphore doneReader = new Semaphore(0);
+				Semaphore doneWriter = new Semaphore(0);
+				KThread self = KThread.currentThread();
+
+				lock.acquireWrite();
+				KThread reader = fork("reader", 2, lock, false, doneReader);
+				KThread.yield();
+				fork("writer", 5, lock, true, doneWriter);
+				KThread.yield();
+				priority[0] = effective(self);
+
+				lock.releaseWrite();
+				yieldUntil(1);
+				priority[1] = effective(self);
+				priority[2] = effective(reader);
+
+				doneReader.V();
+				yieldUntil(2);
+				priority[3] = effective(reader);
+				doneWriter.V();
+				KThread.yield();
+			}
+
+		});
+		assertEquals("Writer not donated to", 5, priority[0]);
+		assertEquals("Released writer kept a donation", 1, priority[1]);
+		assertEquals("Admitted reader not donated to", 5, priority[2]);
+		assertEquals("Released reader kept a donation", 2, priority[3]);
+		assertEquals("reader in", resultsQ.poll());
+		assertEquals("writer in", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+}
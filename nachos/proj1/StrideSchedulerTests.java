@@ -0,0 +1,212 @@
+package nachos.proj1;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import nachos.machine.Machine;
+import nachos.threads.KThread;
+import nachos.threads.Scheduler;
+import nachos.threads.StrideScheduler;
+import nachos.threads.ThreadQueue;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of <tt>StrideScheduler</tt>'s queues. Each test drives a queue of its
+ * own directly, with threads that are never forked, so it does not depend on
+ * the scheduler the kernel runs with.
+ */
+public class StrideSchedulerTests {
+	/**
+	 * Queue for storing ordered results from test runs
+	 */
+	Queue<String> resultsQ = new LinkedList<String>();
+
+	/**
+	 * Return new threads, which are not forked, with the given tickets under
+	 * <i>scheduler</i>. Interrupts must be disabled.
+	 */
+	static KThread[] newThreads(Scheduler scheduler, int... tickets) {
+		KThread[] threads = new KThread[tickets.length];
+		for (int i = 0; i < tickets.length; i++) {
+			threads[i] = new KThread().setName("t" + i);
+			scheduler.setPriority(threads[i], tickets[i]);
+		}
+		return threads;
+	}
+
+	/**
+	 * Over many draws, each thread is chosen in proportion to its tickets, to
+	 * within one draw.
+	 */
+	@Test
+	public void proportionalSelection() {
+		final int[] tickets = { 1, 2, 3, 4 };
+		final int draws = 1000;
+		final int[] counts = new int[tickets.length];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				boolean intStatus = Machine.interrupt().disable();
+
+				StrideScheduler scheduler = new StrideScheduler();
+				ThreadQueue queue = scheduler.newThreadQueue(false);
+				KThread[] threads = newThreads(scheduler, tickets);
+				for (KThread thread : threads)
+					queue.waitForAccess(thread);
+
+				for (int i = 0; i < draws; i++) {
+					KThread next = queue.nextThread();
+					for (int j = 0; j < threads.length; j++) {
+						if (threads[j] == next)
+							counts[j]++;
+					}
+					queue.waitForAccess(next);
+				}
+
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		for (int j = 0; j < tickets.length; j++) {
+			int expected = draws * tickets[j] / 10;
+			assertTrue("t" + j + " chosen " + counts[j] + " times, not "
+					+ expected, Math.abs(counts[j] - expected) <= 1);
+		}
+	}
+
+	/**
+	 * Threads with the same pass are chosen in the order they started
+	 * waiting.
+	 */
+	@Test
+	public void fifoOnEqualPasses() {
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				boolean intStatus = Machine.interrupt().disable();
+
+				StrideScheduler scheduler = new StrideScheduler();
+				ThreadQueue queue = scheduler.newThreadQueue(false);
+				KThread[] threads = newThreads(scheduler, 2, 2, 2);
+				queue.waitForAccess(threads[2]);
+				queue.waitForAccess(threads[0]);
+				queue.waitForAccess(threads[1]);
+
+				for (int i = 0; i < 6; i++) {
+					KThread next = queue.nextThread();
+					resultsQ.add(next.getName());
+					queue.waitForAccess(next);
+				}
+
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("t2", resultsQ.poll());
+		assertEquals("t0", resultsQ.poll());
+		assertEquals("t1", resultsQ.poll());
+		assertEquals("t2", resultsQ.poll());
+		assertEquals("t0", resultsQ.poll());
+		assertEquals("t1", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+
+	/**
+	 * A queue that transfers tickets, as a <tt>Lock</tt>'s does, adds its
+	 * waiters' tickets to its owner's, along a chain of owners, and moves
+	 * them to the next owner when it is dequeued.
+	 */
+	@Test
+	public void ticketTransfer() {
+		final int[] tickets = new int[7];
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				boolean intStatus = Machine.interrupt().disable();
+
+				StrideScheduler scheduler = new StrideScheduler();
+				ThreadQueue lockQueue = scheduler.newThreadQueue(true);
+				ThreadQueue joinQueue = scheduler.newThreadQueue(true);
+				KThread[] threads = newThreads(scheduler, 1, 2, 3, 1);
+				KThread owner = threads[0], top = threads[3];
+
+				lockQueue.acquire(owner);
+				lockQueue.waitForAccess(threads[1]);
+				lockQueue.waitForAccess(threads[2]);
+				tickets[0] = scheduler.getEffectivePriority(owner);
+
+				joinQueue.acquire(top);
+				joinQueue.waitForAccess(owner);
+				tickets[1] = scheduler.getEffectivePriority(top);
+
+				scheduler.setPriority(threads[1], 5);
+				tickets[2] = scheduler.getEffectivePriority(owner);
+				tickets[3] = scheduler.getEffectivePriority(top);
+
+				// t1 now has the most tickets, so the shortest stride
+				KThread next = lockQueue.nextThread();
+				resultsQ.add(next.getName());
+				tickets[4] = scheduler.getEffectivePriority(owner);
+				tickets[5] = scheduler.getEffectivePriority(next);
+				tickets[6] = scheduler.getEffectivePriority(top);
+
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("Owner did not get waiters' tickets", 6, tickets[0]);
+		assertEquals("Tickets not passed along the chain", 7, tickets[1]);
+		assertEquals("Waiter's new tickets not transferred", 9, tickets[2]);
+		assertEquals("Waiter's new tickets not passed along", 10, tickets[3]);
+		assertEquals("t1", resultsQ.poll());
+		assertEquals("Old owner kept tickets", 1, tickets[4]);
+		assertEquals("New owner did not get waiters' tickets", 8, tickets[5]);
+		assertEquals("Old owner's loss not passed along", 2, tickets[6]);
+	}
+
+	/**
+	 * When a waiting thread's tickets change, the rest of its stride is
+	 * rescaled at once, rather than when it next starts waiting.
+	 */
+	@Test
+	public void strideRescaledOnTicketChange() {
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				boolean intStatus = Machine.interrupt().disable();
+
+				StrideScheduler scheduler = new StrideScheduler();
+				ThreadQueue queue = scheduler.newThreadQueue(false);
+				KThread[] threads = newThreads(scheduler, 1, 1);
+				queue.waitForAccess(threads[0]);
+				queue.waitForAccess(threads[1]);
+
+				// t1's pass moves from one full stride to a quarter of one
+				scheduler.setPriority(threads[1], 4);
+
+				for (int i = 0; i < 4; i++) {
+					KThread next = queue.nextThread();
+					resultsQ.add(next.getName());
+					queue.waitForAccess(next);
+				}
+
+				Machine.interrupt().restore(intStatus);
+			}
+
+		});
+		assertEquals("Stride not rescaled", "t1", resultsQ.poll());
+		assertEquals("t1", resultsQ.poll());
+		assertEquals("t1", resultsQ.poll());
+		assertEquals("Tie not broken by waiting time", "t0", resultsQ.poll());
+		assertTrue("Results queue not empty!", resultsQ.poll() == null);
+	}
+}
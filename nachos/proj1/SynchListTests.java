@@ -0,0 +1,86 @@
+package nachos.proj1;
+
+import java.util.ArrayList;
+
+import nachos.threads.KThread;
+import nachos.threads.SynchList;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SynchListTests {
+	/**
+	 * A bounded queue refuses <tt>offer()</tt> when full, and
+	 * <tt>poll()</tt> returns <tt>null</tt> when empty.
+	 */
+	@Test
+	public void offerAndPoll() {
+		final ArrayList<Object> results = new ArrayList<Object>();
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				SynchList list = new SynchList(2);
+
+				results.add(list.offer(Integer.valueOf(1)));
+				results.add(list.offer(Integer.valueOf(2)));
+				results.add(list.offer(Integer.valueOf(3)));
+				results.add(list.size());
+				results.add(list.poll());
+				results.add(list.poll());
+				results.add(list.poll());
+			}
+
+		});
+		assertEquals("First offer", Boolean.TRUE, results.get(0));
+		assertEquals("Second offer", Boolean.TRUE, results.get(1));
+		assertEquals("Offer to a full queue", Boolean.FALSE, results.get(2));
+		assertEquals("Size", Integer.valueOf(2), results.get(3));
+		assertEquals("First poll", Integer.valueOf(1), results.get(4));
+		assertEquals("Second poll", Integer.valueOf(2), results.get(5));
+		assertEquals("Poll of an empty queue", null, results.get(6));
+	}
+
+	/**
+	 * A batch added to a queue holding only 3 objects goes across in
+	 * pieces, and drains out complete and in order.
+	 */
+	@Test
+	public void boundedBatch() {
+		final ArrayList<Object> batch = new ArrayList<Object>();
+		final ArrayList<Object> drained = new ArrayList<Object>();
+		final Object[] leftOver = new Object[1];
+
+		for (int i = 0; i < 10; i++)
+			batch.add(Integer.valueOf(i));
+
+		UnitTests.enqueueJob(new Runnable() {
+
+			@Override
+			public void run() {
+				final SynchList bounded = new SynchList(3);
+				final SynchList pong = new SynchList();
+
+				new KThread(new Runnable() {
+					public void run() {
+						for (int i = 0; i < 10; i++)
+							pong.add(bounded.removeFirst());
+					}
+				}).setName("bounded ping").fork();
+
+				bounded.addAll(batch);
+
+				while (drained.size() < 10) {
+					drained.add(pong.removeFirst());
+					pong.drainTo(drained, 10);
+				}
+				leftOver[0] = pong.poll();
+			}
+
+		});
+		assertEquals("Batch did not drain in order", batch, drained);
+		assertTrue("Queue not empty after draining", leftOver[0] == null);
+	}
+}
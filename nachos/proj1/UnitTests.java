@@ -30,5 +30,12 @@ import org.junit.runners.Suite.SuiteClasses;
 	ExampleTests.class, 
 	JoinTests.class,
 	CommunicatorTests.class,
+	AlarmTests.class,
+	ChannelTests.class,
+	SynchListTests.class,
+	ReadWriteLockTests.class,
+	StrideSchedulerTests.class,
+	MLFQSchedulerTests.class,
+	LotterySchedulerTests.class,
 })
 public class UnitTests extends TestHarness {}
@@ -158,6 +158,24 @@ public abstract class Privilege {
 	 *		MIPS user code.
 	 */
 	public void tick(boolean inKernelMode);
+
+	/**
+	 * Return the number of user ticks that can pass before any interrupt
+	 * becomes due.
+	 *
+	 * @return	the number of ticks that may be passed to
+	 *		<tt>addUserTicks()</tt>.
+	 */
+	public long ticksBeforeDue();
+
+	/**
+	 * Advance the simulated time by several user ticks at once, without
+	 * invoking any interrupt handlers.
+	 *
+	 * @param	ticks	the number of user ticks, at most
+	 *			<tt>ticksBeforeDue()</tt>.
+	 */
+	public void addUserTicks(long ticks);
     }
 
     /**
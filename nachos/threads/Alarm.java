@@ -1,13 +1,19 @@
 package nachos.threads;
 
 import nachos.machine.*;
-import java.lang.Long;
-import java.util.Comparator;
-import java.util.PriorityQueue;
 
 /**
  * Uses the hardware timer to provide preemption, and to allow threads to sleep
  * until a certain time.
+ *
+ * <p>
+ * Pending timeouts are kept in a hashed timing wheel: a circular array of
+ * slots, each an unsorted list of the timeouts whose deadlines fall in one
+ * span of <tt>slotTicks</tt> ticks, modulo the length of the wheel. Adding or
+ * cancelling a timeout takes constant time. Each timer interrupt visits only
+ * the slots that time has moved through since the previous one, expiring the
+ * timeouts that are due there and leaving those due on a later turn of the
+ * wheel.
  */
 public class Alarm {
     /**
@@ -18,28 +24,28 @@ public class Alarm {
      * alarm.
      */
     public Alarm() {
-	    Machine.timer().setInterruptHandler(new Runnable() {
-		    public void run() { timerInterrupt(); }
-        });
-        Comparator<WaitThread> comparator = new WaitThreadComparator();
-        waitQueue = new PriorityQueue<WaitThread>(10, comparator);
+	Machine.timer().setInterruptHandler(new Runnable() {
+		public void run() { timerInterrupt(); }
+	    });
+
+	cursor = Machine.timer().getTime() / slotTicks;
     }
 
     /**
      * The timer interrupt handler. This is called by the machine's timer
-     * periodically (approximately every 500 clock ticks). Causes the current
-     * thread to yield, forcing a context switch if there is another thread
-     * that should be run.
+     * periodically (approximately every 500 clock ticks). Wakes the threads
+     * whose sleep has expired, and causes the current thread to yield if the
+     * scheduler says its time slice is over, forcing a context switch if
+     * there is another thread that should be run.
      */
     public void timerInterrupt() {
-	    Machine.interrupt().disable();
-        WaitThread first = waitQueue.peek();
-        while (first != null && first.getTime() <= Machine.timer().getTime()) { // wakes all threads that have wake time <= current time
-            waitQueue.remove(first);
-            first.getThread().ready();
-            first = waitQueue.peek(); // since priority queue is ordered by wake time, we can stop the loop once we hit a waitThread with wake time > current time
-        }
-        Machine.interrupt().enable();
+	Machine.interrupt().disable();
+
+	expire(Machine.timer().getTime());
+
+	if (ThreadedKernel.scheduler.timerInterrupt())
+	    KThread.yield(); // the scheduler ended the current thread's time slice
+	Machine.interrupt().enable();
     }
 
     /**
@@ -57,44 +63,224 @@ public class Alarm {
      * @see	nachos.machine.Timer#getTime()
      */
     public void waitUntil(long x) {
-	// for now, cheat just to get something working (busy waiting is bad)
-	    Machine.interrupt().disable();
-        long wakeTime = Machine.timer().getTime() + x;
-        KThread current = KThread.currentThread();
-        WaitThread waiting = new WaitThread(current, wakeTime);
-        waitQueue.add(waiting); // add WaitThread to waitQueue, awoken by timerInterrupt
-        current.sleep();
-        Machine.interrupt().enable();
+	boolean intStatus = Machine.interrupt().disable();
+
+	// nobody else can see this timeout, so it can be reused afterwards
+	Timeout timeout = freeTimeouts;
+	if (timeout != null)
+	    freeTimeouts = timeout.next;
+	else
+	    timeout = new Timeout();
+
+	timeout.thread = KThread.currentThread();
+	timeout.handler = null;
+	add(timeout, x);
+	timeout.await();
+
+	timeout.thread = null;
+	timeout.next = freeTimeouts;
+	freeTimeouts = timeout;
+
+	Machine.interrupt().restore(intStatus);
     }
 
-    private PriorityQueue<WaitThread> waitQueue;
-}
+    /**
+     * Start a timeout for the current thread that expires in the first timer
+     * interrupt at least <i>x</i> ticks from now, without sleeping yet. The
+     * thread sleeps by calling <tt>await()</tt> on the returned timeout, and
+     * another thread can wake it early by calling <tt>cancel()</tt>.
+     *
+     * @param	x	the minimum number of clock ticks to wait.
+     * @return	the new timeout.
+     */
+    public Timeout newTimeout(long x) {
+	boolean intStatus = Machine.interrupt().disable();
 
+	Timeout timeout = new Timeout();
+	timeout.thread = KThread.currentThread();
+	add(timeout, x);
 
-class WaitThread { // new class that holds a thread and wake time
-    private KThread thread;
-    private long wakeTime;
-    
-    public WaitThread() {
-        thread = null;
-        wakeTime = 0;
+	Machine.interrupt().restore(intStatus);
+	return timeout;
     }
-    public WaitThread(KThread kt, long time) {
-        thread = kt;
-        wakeTime = time;
+
+    /**
+     * Call <tt>handler.run()</tt> in the first timer interrupt at least
+     * <i>x</i> ticks from now, unless the returned timeout is cancelled
+     * first. The handler runs in the interrupt handler with interrupts
+     * disabled, so it must not block; it may make threads ready.
+     *
+     * @param	x	the minimum number of clock ticks to wait.
+     * @param	handler	the callback.
+     * @return	the new timeout.
+     */
+    public Timeout schedule(long x, Runnable handler) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Timeout timeout = new Timeout();
+	timeout.handler = handler;
+	add(timeout, x);
+
+	Machine.interrupt().restore(intStatus);
+	return timeout;
+    }
+
+    /**
+     * A pending wake-up or callback, which can be cancelled.
+     */
+    public class Timeout {
+	private Timeout() {
+	}
+
+	/**
+	 * Sleep until this timeout expires or is cancelled. Must be called by
+	 * the thread that created it with <tt>newTimeout()</tt>, at most once.
+	 * Returns immediately if that already happened.
+	 *
+	 * @return	<tt>true</tt> if the timeout expired, <tt>false</tt> if
+	 *		it was cancelled.
+	 */
+	public boolean await() {
+	    Lib.assertTrue(thread == KThread.currentThread());
+
+	    boolean intStatus = Machine.interrupt().disable();
+
+	    if (pending) {
+		sleeping = true;
+		KThread.sleep();
+		sleeping = false;
+	    }
+
+	    Machine.interrupt().restore(intStatus);
+	    return expired;
+	}
+
+	/**
+	 * Cancel this timeout if it has not expired yet. A thread sleeping in
+	 * <tt>await()</tt> is woken.
+	 *
+	 * @return	<tt>true</tt> if the timeout was still pending.
+	 */
+	public boolean cancel() {
+	    boolean intStatus = Machine.interrupt().disable();
+
+	    boolean wasPending = pending;
+	    if (pending) {
+		remove(this);
+
+		if (sleeping)
+		    thread.ready();
+	    }
+
+	    Machine.interrupt().restore(intStatus);
+	    return wasPending;
+	}
+
+	/**
+	 * Test whether this timeout has neither expired nor been cancelled.
+	 *
+	 * @return	<tt>true</tt> if this timeout is still pending.
+	 */
+	public boolean isPending() {
+	    return pending;
+	}
+
+	private long deadline;
+	private Runnable handler;
+	private KThread thread;
+	private boolean pending = false;
+	private boolean sleeping = false;
+	private boolean expired = false;
+	private Timeout prev, next;
     }
-    public KThread getThread() {
-        return thread;
+
+    private void add(Timeout timeout, long x) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	timeout.deadline = Machine.timer().getTime() + Math.max(x, 0);
+	timeout.pending = true;
+	timeout.expired = false;
+
+	int slot = (int) (timeout.deadline / slotTicks) & (numSlots-1);
+
+	timeout.prev = null;
+	timeout.next = slots[slot];
+	if (slots[slot] != null)
+	    slots[slot].prev = timeout;
+	slots[slot] = timeout;
     }
-    public long getTime() {
-        return wakeTime;
+
+    private void remove(Timeout timeout) {
+	int slot = (int) (timeout.deadline / slotTicks) & (numSlots-1);
+
+	if (timeout.prev == null)
+	    slots[slot] = timeout.next;
+	else
+	    timeout.prev.next = timeout.next;
+	if (timeout.next != null)
+	    timeout.next.prev = timeout.prev;
+
+	timeout.prev = timeout.next = null;
+	timeout.pending = false;
     }
-}
 
-class WaitThreadComparator implements Comparator<WaitThread> {
-    public int compare(WaitThread t1, WaitThread t2) {
-        Long time1 = t1.getTime();
-        Long time2 = t2.getTime();
-        return time1.compareTo(time2);
+    /**
+     * Expire every timeout due by <i>now</i>. Visits the slots from the one
+     * the previous call stopped in through the one holding <i>now</i>, or
+     * every slot once if time has gone around the whole wheel since. The due
+     * timeouts are unlinked first and fired afterwards, so a handler may add
+     * or cancel timeouts freely.
+     */
+    private void expire(long now) {
+	long last = now / slotTicks;
+	long first = Math.max(cursor, last - (numSlots-1));
+
+	Timeout dueHead = null, dueTail = null;
+
+	for (long i = first; i <= last; i++) {
+	    Timeout timeout = slots[(int) i & (numSlots-1)];
+
+	    while (timeout != null) {
+		Timeout next = timeout.next;
+
+		if (timeout.deadline <= now) {
+		    remove(timeout);
+		    timeout.expired = true;
+
+		    if (dueTail == null)
+			dueHead = timeout;
+		    else
+			dueTail.next = timeout;
+		    dueTail = timeout;
+		}
+
+		timeout = next;
+	    }
+	}
+
+	// the last slot may still hold timeouts due later this span
+	cursor = last;
+
+	while (dueHead != null) {
+	    Timeout timeout = dueHead;
+	    dueHead = timeout.next;
+	    timeout.next = null;
+
+	    if (timeout.handler != null)
+		timeout.handler.run();
+	    else if (timeout.sleeping)
+		timeout.thread.ready();
+	}
     }
+
+    /** The number of ticks each slot spans. */
+    private static final int slotTicks = 64;
+    /** The number of slots in the wheel, a power of two. */
+    private static final int numSlots = 256;
+
+    private Timeout[] slots = new Timeout[numSlots];
+    /** The slot number of the last slot visited. */
+    private long cursor;
+    /** Timeouts left over from <tt>waitUntil()</tt>, linked through <tt>next</tt>. */
+    private Timeout freeTimeouts = null;
 }
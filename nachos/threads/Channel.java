@@ -0,0 +1,201 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <i>channel</i> carries 32-bit words from sending threads to receiving
+ * threads in bulk. Unlike a <tt>Communicator</tt>, which pairs up one
+ * speaker and one listener per word, a channel moves as many words per
+ * wake-up as its buffer and the receiver's array allow.
+ *
+ * <p>
+ * A channel with a positive capacity buffers up to that many words in a
+ * ring, and <tt>send()</tt> returns once all its words are in the buffer. A
+ * channel with capacity 0 is a <i>rendezvous</i> channel: <tt>send()</tt>
+ * lends its array to receivers, which copy straight out of it, and returns
+ * once they have taken every word.
+ *
+ * <p>
+ * Senders take turns, and so do receivers: a sender's words are never
+ * interleaved with another sender's, and each receiver gets the next words
+ * in order. The turns are given out by locks, so they are as fair as the
+ * scheduler's lock queues. Only the thread whose turn it is ever waits for
+ * the buffer, so every wake-up goes to a thread that can make progress.
+ */
+public class Channel {
+    /**
+     * Allocate a new rendezvous channel.
+     */
+    public Channel() {
+	this(0);
+    }
+
+    /**
+     * Allocate a new channel.
+     *
+     * @param	capacity	the number of words the channel buffers, or 0
+     *				for a rendezvous channel.
+     */
+    public Channel(int capacity) {
+	Lib.assertTrue(capacity >= 0);
+
+	this.capacity = capacity;
+	if (capacity > 0)
+	    buffer = new int[capacity];
+
+	lock = new Lock();
+	notEmpty = new Condition(lock);
+	notFull = new Condition(lock);
+
+	sendTurn = new Lock();
+	receiveTurn = new Lock();
+    }
+
+    /**
+     * Send words through this channel, blocking until they are all in the
+     * buffer, or, for a rendezvous channel, until receivers have taken them
+     * all.
+     *
+     * @param	words	the array holding the words to send.
+     * @param	off	the index of the first word to send.
+     * @param	len	the number of words to send.
+     */
+    public void send(int[] words, int off, int len) {
+	Lib.assertTrue(off >= 0 && len >= 0 && off+len <= words.length);
+
+	sendTurn.acquire();
+	lock.acquire();
+
+	if (capacity == 0) {
+	    offered = words;
+	    offeredOff = off;
+	    offeredLen = len;
+
+	    notEmpty.wake();
+	    while (offeredLen > 0)
+		notFull.sleep();
+
+	    offered = null;
+	}
+	else {
+	    while (len > 0) {
+		while (count == capacity)
+		    notFull.sleep();
+
+		int n = Math.min(len, capacity - count);
+		int tail = (head + count) % capacity;
+		int first = Math.min(n, capacity - tail);
+
+		System.arraycopy(words, off, buffer, tail, first);
+		System.arraycopy(words, off+first, buffer, 0, n-first);
+
+		count += n;
+		off += n;
+		len -= n;
+
+		notEmpty.wake();
+	    }
+	}
+
+	lock.release();
+	sendTurn.release();
+    }
+
+    /**
+     * Send every word in an array through this channel.
+     *
+     * @param	words	the words to send.
+     *
+     * @see	#send(int[], int, int)
+     */
+    public void send(int[] words) {
+	send(words, 0, words.length);
+    }
+
+    /**
+     * Receive words from this channel, blocking until at least one is
+     * available. Takes as many as are available, up to <i>len</i>.
+     *
+     * @param	buf	the array to receive the words into.
+     * @param	off	the index in <i>buf</i> of the first word received.
+     * @param	len	the most words to receive. Must be positive.
+     * @return	the number of words received.
+     */
+    public int receive(int[] buf, int off, int len) {
+	Lib.assertTrue(off >= 0 && len > 0 && off+len <= buf.length);
+
+	receiveTurn.acquire();
+	lock.acquire();
+
+	int n;
+	if (capacity == 0) {
+	    while (offeredLen == 0)
+		notEmpty.sleep();
+
+	    n = Math.min(len, offeredLen);
+	    System.arraycopy(offered, offeredOff, buf, off, n);
+
+	    offeredOff += n;
+	    offeredLen -= n;
+	    if (offeredLen == 0)
+		notFull.wake();
+	}
+	else {
+	    while (count == 0)
+		notEmpty.sleep();
+
+	    n = Math.min(len, count);
+	    int first = Math.min(n, capacity - head);
+
+	    System.arraycopy(buffer, head, buf, off, first);
+	    System.arraycopy(buffer, 0, buf, off+first, n-first);
+
+	    head = (head + n) % capacity;
+	    count -= n;
+
+	    notFull.wake();
+	}
+
+	lock.release();
+	receiveTurn.release();
+
+	return n;
+    }
+
+    /**
+     * Receive words from this channel into an array.
+     *
+     * @param	buf	the array to receive the words into.
+     * @return	the number of words received.
+     *
+     * @see	#receive(int[], int, int)
+     */
+    public int receive(int[] buf) {
+	return receive(buf, 0, buf.length);
+    }
+
+    private int capacity;
+    private int[] buffer;
+    /** The index of the oldest buffered word. */
+    private int head = 0;
+    /** The number of buffered words. */
+    private int count = 0;
+
+    /** The array a rendezvous sender is lending to receivers. */
+    private int[] offered = null;
+    private int offeredOff = 0;
+    /** The number of words of <tt>offered</tt> not taken yet. */
+    private int offeredLen = 0;
+
+    /** Guards the buffer, or the offered array. */
+    private Lock lock;
+    /** Signalled when words become available. */
+    private Condition notEmpty;
+    /** Signalled when buffer space frees up, or the offered words run out. */
+    private Condition notFull;
+
+    /** Held by the sender whose words are going in. */
+    private Lock sendTurn;
+    /** Held by the receiver whose turn it is to take words. */
+    private Lock receiveTurn;
+}
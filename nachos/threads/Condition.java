@@ -64,6 +64,23 @@ public class Condition {
 	waitQueue = new LinkedList<Semaphore>();
     }
 
+    /**
+     * Allocate a new condition variable with a name, under which the time
+     * threads spend sleeping on it, until they have reacquired the lock, is
+     * profiled if profiling is enabled.
+     *
+     * @param	conditionLock	the lock associated with this condition
+     *				variable.
+     * @param	name		the name of this condition variable.
+     *
+     * @see	nachos.threads.LockStats
+     */
+    public Condition(Lock conditionLock, String name) {
+	this(conditionLock);
+
+	stats = LockStats.create("condition", name);
+    }
+
     /**
      * Atomically release the associated lock and go to sleep on this condition
      * variable until another thread wakes it using <tt>wake()</tt>. The
@@ -82,9 +99,54 @@ public class Condition {
 	Semaphore waiter = new Semaphore(0);
 	waitQueue.add(waiter);
 
+	long waitStart = Machine.timer().getTime();
 	conditionLock.release();
 	waiter.P();
 	conditionLock.acquire();	
+
+	if (stats != null)
+	    stats.acquired(waitStart);
+    }
+
+    /**
+     * Like <tt>sleep()</tt>, but stop waiting once at least <i>ticks</i>
+     * ticks have passed without another thread waking this one. The current
+     * thread must hold the associated lock, and reacquires it before
+     * returning either way.
+     *
+     * <p>
+     * The alarm <tt>V()</tt>s the same semaphore <tt>wake()</tt> would. After
+     * reacquiring the lock, a thread whose semaphore is still in the queue
+     * was not chosen by <tt>wake()</tt>, so it timed out.
+     *
+     * @param	ticks	the minimum number of clock ticks to wait.
+     * @return	<tt>true</tt> if woken by <tt>wake()</tt> or
+     *		<tt>wakeAll()</tt>, <tt>false</tt> if the wait timed out.
+     */
+    public boolean sleepFor(long ticks) {
+	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	final Semaphore waiter = new Semaphore(0);
+	waitQueue.add(waiter);
+
+	Alarm.Timeout timeout =
+	    ThreadedKernel.alarm.schedule(ticks, new Runnable() {
+		    public void run() { waiter.V(); }
+		});
+
+	long waitStart = Machine.timer().getTime();
+	conditionLock.release();
+	waiter.P();
+	conditionLock.acquire();
+
+	if (stats != null)
+	    stats.acquired(waitStart);
+
+	if (waitQueue.remove(waiter))
+	    return false;
+
+	timeout.cancel();
+	return true;
     }
 
     /**
@@ -111,4 +173,5 @@ public class Condition {
 
     private Lock conditionLock;
     private LinkedList<Semaphore> waitQueue;
+    private LockStats stats = null;
 }
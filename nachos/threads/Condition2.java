@@ -2,6 +2,9 @@ package nachos.threads;
 
 import nachos.machine.*;
 
+import java.util.HashMap;
+import java.util.LinkedList;
+
 /**
  * An implementation of condition variables that disables interrupt()s for
  * synchronization.
@@ -22,7 +25,7 @@ public class Condition2 {
      */
     public Condition2(Lock conditionLock) {
 	    this.conditionLock = conditionLock;
-        waitQueue = ThreadedKernel.scheduler.newThreadQueue(true);
+        waitQueue = new LinkedList<KThread>();
     }
 
     /**
@@ -37,12 +40,45 @@ public class Condition2 {
         Machine.interrupt().disable();
         conditionLock.release(); // release lock automatically
         KThread current = KThread.currentThread();
-        waitQueue.waitForAccess(current);
+        waitQueue.add(current);
         current.sleep(); // put current thread to sleep
         conditionLock.acquire(); // re-acquire lock
         Machine.interrupt().enable();
     }
 
+    /**
+     * Like <tt>sleep()</tt>, but stop waiting once at least <i>ticks</i>
+     * ticks have passed without another thread waking this one. The current
+     * thread must hold the associated lock, and reacquires it before
+     * returning either way.
+     *
+     * <p>
+     * A thread that times out is taken out of <tt>waitQueue</tt> by the
+     * alarm, so <tt>wake()</tt> never chooses it.
+     *
+     * @param	ticks	the minimum number of clock ticks to wait.
+     * @return	<tt>true</tt> if woken by <tt>wake()</tt> or
+     *		<tt>wakeAll()</tt>, <tt>false</tt> if the wait timed out.
+     */
+    public boolean sleepFor(long ticks) {
+	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+        Machine.interrupt().disable();
+        conditionLock.release();
+        KThread current = KThread.currentThread();
+        waitQueue.add(current);
+
+        TimedWait timedWait = new TimedWait(current);
+        timedWait.timeout = ThreadedKernel.alarm.schedule(ticks, timedWait);
+        timedWaits.put(current, timedWait);
+
+        KThread.sleep();
+        conditionLock.acquire();
+        Machine.interrupt().enable();
+
+        return !timedWait.timedOut;
+    }
+
     /**
      * Wake up at most one thread sleeping on this condition variable. The
      * current thread must hold the associated lock.
@@ -51,10 +87,7 @@ public class Condition2 {
 	    Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
         Machine.interrupt().disable();
-        KThread next = waitQueue.nextThread();
-        if (next != null) {
-            next.ready(); // if there is a next thread, ready next thread
-        }
+        wakeNext();
         Machine.interrupt().enable();
     }
 
@@ -64,15 +97,61 @@ public class Condition2 {
      */
     public void wakeAll() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
-    
-    Machine.interrupt().disable();
-    KThread next = waitQueue.nextThread();
-    while (next != null) { // wakes all threads on the waitQueue
-        wake();
-        next = waitQueue.nextThread();
+
+        Machine.interrupt().disable();
+        while (wakeNext())
+            ;
+        Machine.interrupt().enable();
     }
-    Machine.interrupt().enable();
+
+    /**
+     * Wake the first thread in <tt>waitQueue</tt>, cancelling its timeout if
+     * it has one.
+     *
+     * @return	<tt>true</tt> if a thread was woken.
+     */
+    private boolean wakeNext() {
+        if (waitQueue.isEmpty())
+            return false;
+
+        KThread next = waitQueue.removeFirst();
+
+        TimedWait timedWait = timedWaits.remove(next);
+        if (timedWait != null)
+            timedWait.timeout.cancel();
+
+        next.ready();
+        return true;
+    }
+
+    /**
+     * The alarm callback of a thread sleeping in <tt>sleepFor()</tt>.
+     */
+    private class TimedWait implements Runnable {
+        TimedWait(KThread thread) {
+            this.thread = thread;
+        }
+
+        public void run() {
+            timedOut = true;
+            timedWaits.remove(thread);
+            waitQueue.remove(thread);
+            thread.ready();
+        }
+
+        KThread thread;
+        Alarm.Timeout timeout;
+        boolean timedOut = false;
     }
-    private ThreadQueue waitQueue;
+
+    /**
+     * The sleeping threads, in the order they went to sleep. They wait in a
+     * list rather than a thread queue, so that a thread that times out can
+     * be taken out, and because no thread owns a condition variable for them
+     * to donate priority to.
+     */
+    private LinkedList<KThread> waitQueue;
     private Lock conditionLock;
-}
\ No newline at end of file
+    /** The threads in <tt>sleepFor()</tt> that have not timed out. */
+    private HashMap<KThread,TimedWait> timedWaits = new HashMap<KThread,TimedWait>();
+}
@@ -142,8 +142,9 @@ public class KThread {
 	Lib.assertTrue(status == statusNew);
 	Lib.assertTrue(target != null);
 	
-	Lib.debug(dbgThread,
-		  "Forking thread: " + toString() + " Runnable: " + target);
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread,
+		      "Forking thread: " + toString() + " Runnable: " + target);
 
 	boolean intStatus = Machine.interrupt().disable();
 
@@ -165,7 +166,8 @@ public class KThread {
     }
 
     private void begin() {
-	Lib.debug(dbgThread, "Beginning thread: " + toString());
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread, "Beginning thread: " + toString());
 	
 	Lib.assertTrue(this == currentThread);
 
@@ -185,7 +187,8 @@ public class KThread {
      * delete this thread.
      */
     public static void finish() {
-	Lib.debug(dbgThread, "Finishing thread: " + currentThread.toString());
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread, "Finishing thread: " + currentThread.toString());
 	
 	Machine.interrupt().disable();
 
@@ -219,7 +222,8 @@ public class KThread {
      * called with interrupts disabled.
      */
     public static void yield() {
-	Lib.debug(dbgThread, "Yielding thread: " + currentThread.toString());
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread, "Yielding thread: " + currentThread.toString());
 	
 	Lib.assertTrue(currentThread.status == statusRunning);
 	
@@ -244,7 +248,8 @@ public class KThread {
      * scheduled this thread to be destroyed by the next thread to run.
      */
     public static void sleep() {
-	Lib.debug(dbgThread, "Sleeping thread: " + currentThread.toString());
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread, "Sleeping thread: " + currentThread.toString());
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 
@@ -259,7 +264,8 @@ public class KThread {
      * ready queue.
      */
     public void ready() {
-	Lib.debug(dbgThread, "Ready thread: " + toString());
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread, "Ready thread: " + toString());
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 	Lib.assertTrue(status != statusReady);
@@ -278,7 +284,8 @@ public class KThread {
      * thread.
      */
     public void join() {
-	Lib.debug(dbgThread, "Joining to thread: " + toString());
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread, "Joining to thread: " + toString());
 
 	Lib.assertTrue(this != currentThread); // this cannot be the current thread
     
@@ -319,8 +326,11 @@ public class KThread {
      */
     private static void runNextThread() {
 	KThread nextThread = readyQueue.nextThread();
-	if (nextThread == null)
+	if (nextThread == null) {
+	    // nothing can run until an interrupt handler readies a thread
+	    Machine.interrupt().idle();
 	    nextThread = idleThread;
+	}
 
 	nextThread.run();
     }
@@ -352,8 +362,9 @@ public class KThread {
 
 	currentThread.saveState();
 
-	Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
-		  + " to: " + toString());
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
+		      + " to: " + toString());
 
 	currentThread = this;
 
@@ -367,7 +378,8 @@ public class KThread {
      * <tt>statusRunning</tt> and check <tt>toBeDestroyed</tt>.
      */
     protected void restoreState() {
-	Lib.debug(dbgThread, "Running thread: " + currentThread.toString());
+	if (Lib.test(dbgThread))
+	    Lib.debug(dbgThread, "Running thread: " + currentThread.toString());
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 	Lib.assertTrue(this == currentThread);
@@ -26,6 +26,19 @@ public class Lock {
     public Lock() {
     }
 
+    /**
+     * Allocate a new lock with a name, under which its contention is
+     * profiled if profiling is enabled. The lock will initially be
+     * <i>free</i>.
+     *
+     * @param	name	the name of this lock.
+     *
+     * @see	nachos.threads.LockStats
+     */
+    public Lock(String name) {
+	stats = LockStats.create("lock", name);
+    }
+
     /**
      * Atomically acquire this lock. The current thread must not already hold
      * this lock.
@@ -37,12 +50,19 @@ public class Lock {
 	KThread thread = KThread.currentThread();
 
 	if (lockHolder != null) {
+	    long waitStart = Machine.timer().getTime();
 	    waitQueue.waitForAccess(thread);
 	    KThread.sleep();
+
+	    if (stats != null)
+		stats.acquired(waitStart);
 	}
 	else {
 	    waitQueue.acquire(thread);
 	    lockHolder = thread;
+
+	    if (stats != null)
+		stats.acquired();
 	}
 
 	Lib.assertTrue(lockHolder == thread);
@@ -50,6 +70,52 @@ public class Lock {
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Acquire this lock if it is free, without waiting. The current thread
+     * must not already hold this lock.
+     *
+     * @return	<tt>true</tt> if the lock was acquired.
+     */
+    public boolean tryAcquire() {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	boolean acquired = (lockHolder == null);
+	if (acquired) {
+	    waitQueue.acquire(thread);
+	    lockHolder = thread;
+
+	    if (stats != null)
+		stats.acquired();
+	}
+
+	Machine.interrupt().restore(intStatus);
+	return acquired;
+    }
+
+    /**
+     * Acquire this lock, first yielding up to <i>maxSpins</i> times to let the
+     * holder finish, and only then waiting in the lock's queue. Meant for
+     * short critical sections, where the holder usually releases the lock
+     * after a yield or two, saving the waiting thread a trip through the wait
+     * queue, and the holder a hand-off when it releases. The current thread
+     * must not already hold this lock.
+     *
+     * @param	maxSpins	the most times to yield before waiting.
+     */
+    public void spinAcquire(int maxSpins) {
+	for (int i = 0; i < maxSpins; i++) {
+	    if (tryAcquire())
+		return;
+
+	    KThread.yield();
+	}
+
+	acquire();
+    }
+
     /**
      * Atomically release this lock, allowing other threads to acquire it.
      */
@@ -58,6 +124,9 @@ public class Lock {
 
 	boolean intStatus = Machine.interrupt().disable();
 
+	if (stats != null)
+	    stats.released();
+
 	if ((lockHolder = waitQueue.nextThread()) != null)
 	    lockHolder.ready();
 	
@@ -74,6 +143,7 @@ public class Lock {
     }
 
     private KThread lockHolder = null;
+    private LockStats stats = null;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(true);
 }
@@ -0,0 +1,169 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Contention statistics for one named <tt>Lock</tt>, <tt>Semaphore</tt> or
+ * <tt>Condition</tt>. A record counts the times its object was acquired (for
+ * a semaphore, <tt>P()</tt> returned; for a condition variable, a thread
+ * woke up), how many of those had to wait, and how long they waited, in
+ * ticks. For a lock it also counts how long the lock was held, from when
+ * <tt>acquire()</tt> returned to <tt>release()</tt>.
+ *
+ * <p>
+ * Profiling is off unless the <tt>nachos.conf</tt> key
+ * <tt>ThreadedKernel.lockStats</tt> is <tt>true</tt>, and then only objects
+ * given a name when they are allocated are profiled, so that short-lived
+ * ones, such as the semaphores a condition variable sleeps on, cost nothing.
+ * The kernel prints every record, most waited-for first, when it terminates.
+ * If <tt>ThreadedKernel.lockStatsInterval</tt> is positive, it also prints
+ * them that often, in ticks, while it runs; <tt>print()</tt> can be called at
+ * any time as well.
+ */
+public class LockStats {
+    private LockStats(String kind, String name) {
+	this.kind = kind;
+	this.name = name;
+    }
+
+    /**
+     * Start profiling objects that are allocated with a name from now on.
+     * Called by the kernel during initialization.
+     *
+     * @param	interval	how often to print the statistics while the
+     *				kernel runs, in ticks, or 0 to print them only
+     *				when it terminates.
+     */
+    public static void enable(long interval) {
+	enabled = true;
+
+	if (interval > 0)
+	    sample(interval);
+    }
+
+    /**
+     * Return a new record for an object being allocated, and register it, if
+     * profiling is enabled and the object has a name.
+     *
+     * @param	kind	the kind of the object, for example <tt>"lock"</tt>.
+     * @param	name	the object's name, or <tt>null</tt>.
+     * @return	a new record, or <tt>null</tt> if the object is not profiled.
+     */
+    static LockStats create(String kind, String name) {
+	if (!enabled || name == null)
+	    return null;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	LockStats stats = new LockStats(kind, name);
+	allStats.add(stats);
+
+	Machine.interrupt().restore(intStatus);
+	return stats;
+    }
+
+    /**
+     * Print every record, in decreasing order of total wait, if any objects
+     * are being profiled.
+     */
+    public static void print() {
+	if (!enabled)
+	    return;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (!allStats.isEmpty()) {
+	    ArrayList<LockStats> sorted = new ArrayList<LockStats>(allStats);
+	    Collections.sort(sorted, new Comparator<LockStats>() {
+		    public int compare(LockStats a, LockStats b) {
+			if (a.totalWait != b.totalWait)
+			    return (a.totalWait > b.totalWait) ? -1 : 1;
+			return a.name.compareTo(b.name);
+		    }
+		});
+
+	    System.out.println("Lock contention at tick "
+			       + Machine.timer().getTime() + ":");
+	    for (LockStats stats : sorted)
+		System.out.println("  " + stats);
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Print the records every <i>interval</i> ticks, from the timer interrupt
+     * handler.
+     */
+    private static void sample(final long interval) {
+	ThreadedKernel.alarm.schedule(interval, new Runnable() {
+		public void run() {
+		    print();
+		    sample(interval);
+		}
+	    });
+    }
+
+    /**
+     * Record an acquisition that did not wait.
+     */
+    void acquired() {
+	numAcquires++;
+	holdStart = Machine.timer().getTime();
+    }
+
+    /**
+     * Record an acquisition by a thread that started waiting at
+     * <i>waitStart</i> and was woken with the object just now.
+     *
+     * @param	waitStart	the time the thread started waiting.
+     */
+    void acquired(long waitStart) {
+	acquired();
+	numContended++;
+
+	long wait = holdStart - waitStart;
+	totalWait += wait;
+	maxWait = Math.max(maxWait, wait);
+    }
+
+    /**
+     * Record the release of a lock, ending the hold that started at the last
+     * acquisition.
+     */
+    void released() {
+	long hold = Machine.timer().getTime() - holdStart;
+	totalHold += hold;
+	maxHold = Math.max(maxHold, hold);
+    }
+
+    public String toString() {
+	String s = name + " (" + kind + "): acquires " + numAcquires
+	    + ", contended " + numContended
+	    + ", wait total " + totalWait + " max " + maxWait;
+
+	if (kind.equals("lock"))
+	    s += ", hold total " + totalHold + " max " + maxHold;
+
+	return s;
+    }
+
+    private String kind;
+    private String name;
+
+    private int numAcquires = 0;
+    private int numContended = 0;
+    private long totalWait = 0;
+    private long maxWait = 0;
+    private long totalHold = 0;
+    private long maxHold = 0;
+    /** The time of the last acquisition. */
+    private long holdStart = 0;
+
+    private static boolean enabled = false;
+    private static ArrayList<LockStats> allStats = new ArrayList<LockStats>();
+}
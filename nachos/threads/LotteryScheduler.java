@@ -25,6 +25,10 @@ import java.util.*;
  * particular, tickets must be transferred through locks, and through joins.
  * Unlike a priority scheduler, these tickets add (as opposed to just taking
  * the maximum).
+ *
+ * <p>
+ * Winners are drawn from a random number generator seeded with the
+ * <tt>nachos.conf</tt> key <tt>LotteryScheduler.seed</tt>, 0 by default.
  */
 public class LotteryScheduler extends Scheduler {
     /**
@@ -99,7 +103,7 @@ public class LotteryScheduler extends Scheduler {
 	static final int priorityMaximum = Integer.MAX_VALUE;
 	//updated priority maximum
     public LotteryScheduler() {
-    	
+    	randomGenerator = new Random(Config.getInteger("LotteryScheduler.seed", 0));
     }
     public int getPriority(KThread thread) {
 		Lib.assertTrue(Machine.interrupt().disabled());
@@ -163,20 +167,30 @@ public class LotteryScheduler extends Scheduler {
 	// implement me
 	return new LotteryQueue(transferPriority);
     }
+    /**
+     * A queue of threads holding a lottery among their tickets.
+     *
+     * <p>
+     * Each waiting thread occupies a slot of a Fenwick tree whose weights are
+     * the threads' effective tickets. Adding or removing a thread, changing
+     * its tickets and drawing a winner all take O(log n) time in the number
+     * of slots, and the total is always at hand for donation to the owner.
+     */
     protected class LotteryQueue extends ThreadQueue {
-    	/**
-		 * A random number generator for the lottery.
-		 */
-		Random randomGenerator = new Random();
-		//need this for random lottery
 		private LotteryThreadState masterThread; 
 		//holds now the tickets instead of priority
     	private boolean transferTickets;
     	//see if priority donates happen I assume
-    	private HashSet<LotteryThreadState> queue = new HashSet<LotteryThreadState>();
-    	//a datastructure to hold the waiting threads
-    	private int maxTickets;
-    	//knows the value of the ticket max
+    	private LotteryThreadState[] slots = new LotteryThreadState[initialSlots];
+    	//the waiting threads, by slot
+    	private long[] tree = new long[initialSlots+1];
+    	//Fenwick tree over the slots' tickets, indexed from 1
+    	private int[] freeSlots = new int[initialSlots];
+    	private int numFreeSlots = 0;
+    	//slots below usedSlots that are empty
+    	private int usedSlots = 0;
+    	private long totalTickets = 0;
+    	//sum of the effective tickets of every waiting thread
 
     	LotteryQueue(boolean transferTickets2) {
 			transferTickets = transferTickets2;
@@ -184,70 +198,125 @@ public class LotteryScheduler extends Scheduler {
 
 		@Override
 		public void waitForAccess(KThread thread) {
-			// TODO Auto-generated method stub
+			Lib.assertTrue(Machine.interrupt().disabled());
 			LotteryThreadState state = getLotThreadState(thread);
 			state.waitForAccess(this);
 		}
-		private void revaluate(){
-			for(LotteryThreadState val : this.queue){
-				val.updateSumTicket();
-			}
-		}
-		private int findMax(){
-			int maxValue = 1;
-			for (LotteryThreadState value : this.queue) {
-				int temp = value.donatedTickets;
-    			if (temp > maxValue) {
-        			maxValue = temp;
-    			}	
-			}
-			return maxValue;
-		}
 
 		@Override
 		public KThread nextThread() {
-			//System.out.println(this.queue.size()+"how many to remove"+this.queue.isEmpty());
-			if(!this.queue.isEmpty()){
-				//pick the value that represents the max of all the threads in queue
-				
-				int winning_ticket = this.randomGenerator.nextInt(this.findMax());
-				//System.out.println("this is winning ticket"+winning_ticket);
-				//randomly pick that number
-				//go through an iterative loop, find that element, and remove it
-				for(LotteryThreadState winner: this.queue){
-					//System.out.println(winning_ticket+"wiiner vs ticket holder"+winner.donatedTickets);
-					if(winning_ticket < winner.donatedTickets){
-						KThread temp = winner.thread;
-						//update ticketmax
-						this.acquire(temp);
-						this.revaluate();
-						return temp;
-					}
-				}
+			Lib.assertTrue(Machine.interrupt().disabled());
+			if (usedSlots == numFreeSlots) {
+				return null;
 			}
-			//if none, return null
-			return null;
 
+			long winningTicket = (long) (randomGenerator.nextDouble() * totalTickets);
+			if (winningTicket >= totalTickets) {
+				winningTicket = totalTickets - 1;
+			}
+
+			KThread winner = slots[findSlot(winningTicket)].thread;
+			this.acquire(winner);
+			return winner;
 		}
 		@Override
 		public void acquire(KThread thread) {
-			// TODO Auto-generated method stub
+			Lib.assertTrue(Machine.interrupt().disabled());
 			getLotThreadState(thread).acquire(this);
 		}
 		@Override
 		public void print() {
-			// TODO Auto-generated method stub
-			
+			Lib.assertTrue(Machine.interrupt().disabled());
+			for (int slot = 0; slot < usedSlots; slot++) {
+				if (slots[slot] != null) {
+					System.out.print(" " + slots[slot].thread + " ("
+							+ slots[slot].donatedTickets + ")");
+				}
+			}
+			System.out.println();
+		}
+
+		/**
+		 * Put a thread in a free slot, with its effective tickets.
+		 *
+		 * @return	the slot.
+		 */
+		int add(LotteryThreadState state) {
+			int slot;
+			if (numFreeSlots > 0) {
+				slot = freeSlots[--numFreeSlots];
+			}
+			else {
+				if (usedSlots == slots.length) {
+					grow();
+				}
+				slot = usedSlots++;
+			}
+
+			slots[slot] = state;
+			update(slot, state.donatedTickets);
+			return slot;
+		}
+
+		/**
+		 * Take a thread out of its slot.
+		 */
+		void remove(int slot) {
+			update(slot, -slots[slot].donatedTickets);
+			slots[slot] = null;
+			freeSlots[numFreeSlots++] = slot;
+		}
+
+		/**
+		 * Add <tt>delta</tt> tickets to a slot, touching only the tree nodes
+		 * that cover it.
+		 */
+		void update(int slot, long delta) {
+			for (int i = slot + 1; i < tree.length; i += i & -i) {
+				tree[i] += delta;
+			}
+			totalTickets += delta;
+		}
+
+		/**
+		 * Find the slot holding a ticket, by descending the tree.
+		 *
+		 * @param	ticket	a ticket number, less than <tt>totalTickets</tt>.
+		 * @return	the slot whose tickets include <tt>ticket</tt>, counting
+		 *		the slots in order.
+		 */
+		private int findSlot(long ticket) {
+			int pos = 0;
+			// the capacity is a power of two, so the descent covers it exactly
+			for (int step = slots.length; step > 0; step >>= 1) {
+				if (pos + step < tree.length && tree[pos + step] <= ticket) {
+					pos += step;
+					ticket -= tree[pos];
+				}
+			}
+			return pos;
+		}
+
+		/**
+		 * Double the number of slots, and rebuild the tree in linear time.
+		 */
+		private void grow() {
+			int capacity = slots.length * 2;
+
+			slots = Arrays.copyOf(slots, capacity);
+			freeSlots = Arrays.copyOf(freeSlots, capacity);
+
+			tree = new long[capacity+1];
+			for (int i = 1; i <= capacity; i++) {
+				if (slots[i-1] != null) {
+					tree[i] += slots[i-1].donatedTickets;
+				}
+				int parent = i + (i & -i);
+				if (parent <= capacity) {
+					tree[parent] += tree[i];
+				}
+			}
 		}
-		void removeAndUpdate(LotteryThreadState temp) {
-            if (this.queue.remove(temp)) {
-            	this.revaluate();
-            	if (this.masterThread != null){
-                   this.masterThread.updateSumTicket();
-            	}
-            }
-    }
-		
     }
     protected static class LotteryThreadState {
     	
@@ -259,84 +328,86 @@ public class LotteryScheduler extends Scheduler {
 			if(lotteryQueue.masterThread != null){
 				lotteryQueue.masterThread.release(lotteryQueue);
 			}
-			lotteryQueue.removeAndUpdate(this);
+			Integer slot = this.waiting.remove(lotteryQueue);
+			if (slot != null) {
+				lotteryQueue.remove(slot);
+			}
 			lotteryQueue.masterThread = this;
-			this.acquired.add(lotteryQueue);
-			this.waiting.remove(lotteryQueue);
-			this.updateSumTicket();
-
+			if (lotteryQueue.transferTickets) {
+				this.changeDonated(lotteryQueue.totalTickets);
+			}
 		}
 
 		void waitForAccess(LotteryQueue lotteryQueue) {
+			Lib.assertTrue(!this.waiting.containsKey(lotteryQueue));
 
-			if(this.acquired.contains(lotteryQueue)){
-                this.release(lotteryQueue);
-            }
-            this.waiting.add(lotteryQueue);
-            lotteryQueue.queue.add(this);
-            if(lotteryQueue.masterThread != null){
-                lotteryQueue.masterThread.updateSumTicket();
-            }
-            this.updateSumTicket();
+			this.release(lotteryQueue);
+			this.waiting.put(lotteryQueue, lotteryQueue.add(this));
+			if(lotteryQueue.masterThread != null && lotteryQueue.transferTickets){
+				lotteryQueue.masterThread.changeDonated(this.donatedTickets);
+			}
 		}
 
 		private void release(LotteryQueue lotteryQueue) {
-			if(this.acquired.remove(lotteryQueue)){
+			if(lotteryQueue.masterThread == this){
 				lotteryQueue.masterThread = null;
-				this.updateSumTicket();
+				if (lotteryQueue.transferTickets) {
+					this.changeDonated(-lotteryQueue.totalTickets);
+				}
 			}
 		}
 		void setTickets(int tickets2) {
 			if(this.tickets == tickets2){
 				return;
 			}
+			long delta = tickets2 - tickets;
 			tickets = tickets2;
-			this.updateSumTicket();
+			this.changeDonated(delta);
 		}
 		int getTickets() {
 			return tickets;
 		}
 
-		void updateSumTicket(){
-			//look at all my waiting, and add up and set that to me :D
-			int temp = this.tickets;
-			for(LotteryQueue lot: this.acquired){
-				if(lot.transferTickets){
-					for(LotteryThreadState waitingtotrans: lot.queue){
-						temp += waitingtotrans.donatedTickets;
-					}
-				}
+		/**
+		 * Add <tt>delta</tt> to this thread's effective tickets, and pass the
+		 * change along the path of queues it waits on and their owners.
+		 * Nothing else is recounted.
+		 */
+		void changeDonated(long delta){
+			if (delta == 0) {
+				return;
 			}
-			this.donatedTickets = temp;
+			this.donatedTickets += delta;
 
-			for(LotteryQueue wait : this.waiting){
-				if(wait.masterThread!=null && wait.transferTickets){
-					wait.masterThread.updateSumTicket();
+			for(Map.Entry<LotteryQueue,Integer> wait : this.waiting.entrySet()){
+				LotteryQueue lot = wait.getKey();
+				lot.update(wait.getValue(), delta);
+				if(lot.masterThread != null && lot.transferTickets){
+					lot.masterThread.changeDonated(delta);
 				}
 			}
 
 		}
 		public int getFullyDonated() {
-			return this.donatedTickets;
+			return (int) Math.min(this.donatedTickets, Integer.MAX_VALUE);
 		}
 
-
-
-
 		
-		
-		private HashSet<LotteryQueue> acquired = new HashSet<LotteryQueue>();
-
-		
-		private HashSet<LotteryQueue> waiting = new HashSet<LotteryQueue>();
+		//the queues this thread waits on, with its slot in each
+		private HashMap<LotteryQueue,Integer> waiting = new HashMap<LotteryQueue,Integer>();
 
 		
 		private int tickets = priorityDefault;
 
 		
-		private int donatedTickets = priorityDefault;
+		private long donatedTickets = priorityDefault;
 
 		
 		private KThread thread;
 	}
+
+	/** Draws the winners of all this scheduler's lotteries. */
+	private Random randomGenerator;
+
+	private static final int initialSlots = 8;
 }
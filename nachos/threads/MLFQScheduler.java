@@ -0,0 +1,394 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A multi-level feedback queue scheduler. Every thread is at one of several
+ * levels, level 0 being the most urgent, and queues give access to threads
+ * at lower levels first, and first-come first-served within a level.
+ *
+ * <p>
+ * Threads move between levels according to how they use the CPU. A thread's
+ * time slice at level <i>l</i> is <tt>quantum</tt> &times; 2<sup><i>l</i></sup>
+ * ticks, charged on timer interrupts to whichever thread is running. A
+ * thread that uses up its time slice is preempted and moved down a level. A
+ * thread that blocks, for example on a <tt>Lock</tt> or on the console, is
+ * moved up a level when it is woken. So interactive threads stay near the
+ * top while CPU-bound threads sink, and sink further the longer they run.
+ * To keep CPU-bound threads from starving, every <tt>boostInterval</tt>
+ * ticks all threads move back to level 0.
+ *
+ * <p>
+ * The number of levels, the quantum and the boost interval are set with the
+ * <tt>nachos.conf</tt> keys <tt>MLFQScheduler.levels</tt>,
+ * <tt>MLFQScheduler.quantum</tt> and <tt>MLFQScheduler.boostInterval</tt>.
+ * The scheduler counts the ticks charged at each level, which the debug flag
+ * <tt>q</tt> prints at every boost. This scheduler does not transfer
+ * priority.
+ */
+public class MLFQScheduler extends Scheduler {
+    /**
+     * Allocate a new multi-level feedback queue scheduler.
+     */
+    public MLFQScheduler() {
+	numLevels = Config.getInteger("MLFQScheduler.levels", 4);
+	quantum = Config.getInteger("MLFQScheduler.quantum",
+				    2*Stats.TimerTicks);
+	boostInterval = Config.getInteger("MLFQScheduler.boostInterval",
+					  100*Stats.TimerTicks);
+
+	Lib.assertTrue(numLevels >= 1 && numLevels <= 31);
+	Lib.assertTrue(quantum > 0 && boostInterval > 0);
+
+	levelTicks = new long[numLevels];
+	nextBoost = boostInterval;
+    }
+
+    /**
+     * Allocate a new multi-level thread queue.
+     *
+     * @param	transferPriority	ignored. This scheduler does not
+     *					transfer priority.
+     * @return	a new multi-level thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new MLFQQueue();
+    }
+
+    /**
+     * Return the priority of a thread, which is higher at more urgent levels:
+     * <tt>getNumLevels() - 1</tt> at level 0, down to 0 at the bottom level.
+     */
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return numLevels-1 - getThreadState(thread).getLevel();
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	return getPriority(thread);
+    }
+
+    /**
+     * Move a thread to the level with the specified priority. Its time slice
+     * starts over. A thread already waiting keeps its place in the queues it
+     * is waiting on.
+     */
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= 0 && priority < numLevels);
+
+	ThreadState state = getThreadState(thread);
+	state.getLevel();	// catch up with any boost first
+	state.level = numLevels-1 - priority;
+	state.used = 0;
+    }
+
+    /**
+     * Charge the ticks since the last timer interrupt to the current thread,
+     * boost every thread to level 0 if it is time, and end the current
+     * thread's time slice, moving it down a level, if it is used up.
+     */
+    public boolean timerInterrupt() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	long now = Machine.timer().getTime();
+	long ticks = now - lastTimerInterrupt;
+	lastTimerInterrupt = now;
+
+	if (now >= nextBoost) {
+	    boostEpoch++;
+	    numBoosts++;
+	    nextBoost = now + boostInterval;
+
+	    if (Lib.test(dbgMLFQ))
+		print();
+	}
+
+	ThreadState current = getThreadState(KThread.currentThread());
+	int level = current.getLevel();
+
+	current.used += ticks;
+	levelTicks[level] += ticks;
+
+	if (current.used < getQuantum(level))
+	    return false;
+
+	if (level < numLevels-1) {
+	    current.level++;
+	    numDemotions++;
+	}
+	current.used = 0;
+
+	return true;
+    }
+
+    /**
+     * Return the number of levels.
+     *
+     * @return	the number of levels.
+     */
+    public int getNumLevels() {
+	return numLevels;
+    }
+
+    /**
+     * Return the length of a time slice at the specified level.
+     *
+     * @param	level	the level.
+     * @return	the time slice, in ticks.
+     */
+    public long getQuantum(int level) {
+	return (long) quantum << level;
+    }
+
+    /**
+     * Return how often every thread is moved back to level 0.
+     *
+     * @return	the boost interval, in ticks.
+     */
+    public long getBoostInterval() {
+	return boostInterval;
+    }
+
+    /**
+     * Return the number of ticks charged to threads while they were at the
+     * specified level.
+     *
+     * @param	level	the level.
+     * @return	the number of ticks.
+     */
+    public long getLevelTicks(int level) {
+	return levelTicks[level];
+    }
+
+    /**
+     * Return the number of threads moved down a level for using up their time
+     * slice.
+     */
+    public int getNumDemotions() {
+	return numDemotions;
+    }
+
+    /**
+     * Return the number of threads moved up a level on being woken.
+     */
+    public int getNumPromotions() {
+	return numPromotions;
+    }
+
+    /**
+     * Return the number of times every thread was moved back to level 0.
+     */
+    public int getNumBoosts() {
+	return numBoosts;
+    }
+
+    /**
+     * Print the ticks charged at each level, and how often threads changed
+     * levels.
+     */
+    public void print() {
+	System.out.print("MLFQ ticks:");
+	for (int level = 0; level < numLevels; level++)
+	    System.out.print(" level " + level + " " + levelTicks[level]);
+	System.out.println(", demotions " + numDemotions
+			   + ", promotions " + numPromotions
+			   + ", boosts " + numBoosts);
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A queue with one FIFO list per level, and a bit set of the levels whose
+     * lists are not empty.
+     */
+    protected class MLFQQueue extends ThreadQueue {
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+
+	    // a thread made ready by another thread was blocked, rather than
+	    // preempted or yielding
+	    if (thread != KThread.currentThread())
+		state.woken();
+
+	    boost();
+
+	    int level = state.getLevel();
+	    Waiter waiter = new Waiter(state);
+
+	    if (tails[level] == null)
+		heads[level] = waiter;
+	    else
+		tails[level].next = waiter;
+	    tails[level] = waiter;
+
+	    nonEmpty |= 1 << level;
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    boost();
+
+	    if (nonEmpty == 0)
+		return null;
+
+	    int level = Integer.numberOfTrailingZeros(nonEmpty);
+	    Waiter waiter = heads[level];
+
+	    heads[level] = waiter.next;
+	    if (heads[level] == null) {
+		tails[level] = null;
+		nonEmpty &= ~(1 << level);
+	    }
+
+	    return waiter.state.thread;
+	}
+
+	/**
+	 * The specified thread has received exclusive access, without using
+	 * <tt>waitForAccess()</tt> or <tt>nextThread()</tt>. Assert that no
+	 * threads are waiting for access.
+	 */
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    Lib.assertTrue(nonEmpty == 0);
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int level = 0; level < numLevels; level++) {
+		for (Waiter w = heads[level]; w != null; w = w.next)
+		    System.out.print(w.state.thread + " (" + level + ") ");
+	    }
+	}
+
+	/**
+	 * If every thread was boosted since this queue last looked, move its
+	 * waiting threads to level 0, in their current order.
+	 */
+	private void boost() {
+	    if (epoch == boostEpoch)
+		return;
+
+	    epoch = boostEpoch;
+
+	    for (int level = 1; level < numLevels; level++) {
+		if (heads[level] == null)
+		    continue;
+
+		if (tails[0] == null)
+		    heads[0] = heads[level];
+		else
+		    tails[0].next = heads[level];
+		tails[0] = tails[level];
+
+		heads[level] = tails[level] = null;
+	    }
+
+	    nonEmpty = (heads[0] == null) ? 0 : 1;
+	}
+
+	private Waiter[] heads = new Waiter[numLevels];
+	private Waiter[] tails = new Waiter[numLevels];
+	/** Bit <i>l</i> is set if the list for level <i>l</i> is not empty. */
+	private int nonEmpty = 0;
+	/** The boost this queue has caught up with. */
+	private int epoch = boostEpoch;
+    }
+
+    private static class Waiter {
+	Waiter(ThreadState state) {
+	    this.state = state;
+	}
+
+	ThreadState state;
+	Waiter next = null;
+    }
+
+    /**
+     * The scheduling state of a thread: its level, and how much of its time
+     * slice there it has used.
+     */
+    protected class ThreadState {
+	/**
+	 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+	 * specified thread. The thread starts at level 0.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public ThreadState(KThread thread) {
+	    this.thread = thread;
+	}
+
+	/**
+	 * Return the level of the associated thread, moving it to level 0
+	 * first if every thread was boosted since it last looked.
+	 *
+	 * @return	the level.
+	 */
+	public int getLevel() {
+	    if (epoch != boostEpoch) {
+		epoch = boostEpoch;
+		level = 0;
+		used = 0;
+	    }
+
+	    return level;
+	}
+
+	/**
+	 * Called when the associated thread is made ready after blocking.
+	 * Moves it up a level, and starts its time slice over.
+	 */
+	void woken() {
+	    if (getLevel() > 0) {
+		level--;
+		numPromotions++;
+	    }
+	    used = 0;
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The level of the associated thread, as of boost <tt>epoch</tt>. */
+	protected int level = 0;
+	/** The ticks of its time slice the thread has used at this level. */
+	protected long used = 0;
+	/** The boost this thread has caught up with. */
+	protected int epoch = boostEpoch;
+    }
+
+    private int numLevels;
+    private int quantum;
+    private int boostInterval;
+
+    private long lastTimerInterrupt = 0;
+    private long nextBoost;
+    /** Counts the boosts, so that threads and queues can catch up lazily. */
+    private int boostEpoch = 0;
+
+    private long[] levelTicks;
+    private int numDemotions = 0;
+    private int numPromotions = 0;
+    private int numBoosts = 0;
+
+    private static final char dbgMLFQ = 'q';
+}
@@ -175,6 +175,19 @@ public class PriorityScheduler extends Scheduler {
     
     /**
      * A <tt>ThreadQueue</tt> that sorts threads by priority.
+     *
+     * <p>
+     * The waiting threads are kept in one FIFO bucket per priority level,
+     * and a bit set records which buckets are not empty. Each thread is in
+     * the bucket of its effective priority, so the next thread is the head
+     * of the highest non-empty bucket, and the highest priority waiting is
+     * the highest bit set. When a waiting thread's effective priority
+     * changes, it is moved to its new bucket.
+     *
+     * <p>
+     * A queue that transfers priority remembers the priority it last donated
+     * to its owner, so a change among its waiters only has to be passed on if
+     * it changes that highest priority.
      */
     protected class PriorityQueue extends ThreadQueue {
         PriorityQueue(boolean transferPriority) {
@@ -184,36 +197,22 @@ public class PriorityScheduler extends Scheduler {
         public void waitForAccess(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
             getThreadState(thread).waitForAccess(this);
-            priorityQ.add(getThreadState(thread));
         }
         
         public void acquire(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
             getThreadState(thread).acquire(this);
-            ownerThreadState = getThreadState(thread);
         }
         
         public KThread nextThread() {
             Lib.assertTrue(Machine.interrupt().disabled());
-            /*
-             if (ownerThreadState != null) {
-             ownerThreadState.release(this);
-             }
-             ownerThreadState = priorityQ.poll();
-             if (ownerThreadState != null) {
-             ownerThreadState.acquire(this);
-             return ownerThreadState.thread;
-             }
-             return null;
-             */
-            if(priorityQ.isEmpty()){
+
+            ThreadState next = pickNextThread();
+            if (next == null)
                 return null;
-            }else{
-                acquire(priorityQ.poll().thread);
-                return this.ownerThreadState.thread;
-            }
-            
-            
+
+            next.acquire(this);
+            return next.thread;
         }
         
         /**
@@ -224,15 +223,81 @@ public class PriorityScheduler extends Scheduler {
          *		return.
          */
         protected ThreadState pickNextThread() {
-            if (priorityQ.peek() != null) {
-                return priorityQ.peek();
-            }
-            return null;
+            if (nonEmpty == 0)
+                return null;
+
+            return heads[getHighestPriority()].state;
+        }
+
+        /**
+         * Return the highest effective priority of any thread waiting in this
+         * queue.
+         *
+         * @return	the highest effective priority, or -1 if no thread is
+         *		waiting.
+         */
+        protected int getHighestPriority() {
+            return 31 - Integer.numberOfLeadingZeros(nonEmpty);
         }
         
         public void print() {
             Lib.assertTrue(Machine.interrupt().disabled());
-            // implement me (if you want)
+
+            for (int p = priorityMaximum; p >= priorityMinimum; p--) {
+                for (Waiter w = heads[p]; w != null; w = w.next)
+                    System.out.print(" " + w.state.thread + " (" + p + ")");
+            }
+            System.out.println();
+        }
+
+        /**
+         * Add a waiter to the bucket of its thread's effective priority.
+         * Within a bucket, threads stay in the order they started waiting,
+         * so the new waiter almost always goes at the tail.
+         */
+        void add(Waiter waiter) {
+            int p = waiter.state.effectivePriority;
+            waiter.priority = p;
+
+            Waiter before = tails[p];
+            while (before != null && before.sequence > waiter.sequence)
+                before = before.prev;
+
+            Waiter after = (before == null) ? heads[p] : before.next;
+
+            waiter.prev = before;
+            waiter.next = after;
+            if (before == null)
+                heads[p] = waiter;
+            else
+                before.next = waiter;
+            if (after == null)
+                tails[p] = waiter;
+            else
+                after.prev = waiter;
+
+            nonEmpty |= 1 << p;
+        }
+
+        /**
+         * Remove a waiter from its bucket.
+         */
+        void remove(Waiter waiter) {
+            int p = waiter.priority;
+
+            if (waiter.prev == null)
+                heads[p] = waiter.next;
+            else
+                waiter.prev.next = waiter.next;
+            if (waiter.next == null)
+                tails[p] = waiter.prev;
+            else
+                waiter.next.prev = waiter.prev;
+
+            waiter.prev = waiter.next = null;
+
+            if (heads[p] == null)
+                nonEmpty &= ~(1 << p);
         }
         
         /**
@@ -240,42 +305,40 @@ public class PriorityScheduler extends Scheduler {
          * threads to the owning thread.
          */
         public boolean transferPriority;
+        /** The thread that last acquired this queue, if it still owns it. */
         public ThreadState ownerThreadState;
-        public java.util.PriorityQueue<ThreadState> priorityQ = new java.util.PriorityQueue<ThreadState>(8,new ThreadStateComparator<ThreadState>(this));
-        
-        protected class ThreadStateComparator<T extends ThreadState> implements Comparator<T> {
-			protected ThreadStateComparator(PriorityQueue pq) {
-				priorityQueue = pq;
-			}
-			
-			@Override
-			public int compare(T first, T second) {
-				//first compare by effective priority
-				int first_ep = first.getEffectivePriority();
-				int second_ep = second.getEffectivePriority();
-				if (first_ep > second_ep) {
-					return -1;
-				} else if (first_ep < second_ep) {
-					return 1;
-				} else {
-					//compare by the times these threads have spent in this queue
-					long first_age = first.ownedQueuesList.get(priorityQueue);
-					long second_age = second.ownedQueuesList.get(priorityQueue);
-					
-					if (first_age < second_age) {
-						return -1;
-					} else if(first_age > second_age) {
-						return 1;
-					} else {
-						return 0;
-					}
-				}
-			}
-			
-			private PriorityQueue priorityQueue;
-			
-		}
-        
+        /**
+         * The priority this queue currently donates to its owner, or -1 if
+         * it donates nothing.
+         */
+        int donatedPriority = -1;
+        /** <tt>true</tt> if this queue is in the scheduler's worklist. */
+        boolean changed = false;
+        /** The next queue in the scheduler's worklist. */
+        PriorityQueue nextChanged = null;
+
+        private Waiter[] heads = new Waiter[priorityMaximum+1];
+        private Waiter[] tails = new Waiter[priorityMaximum+1];
+        /** Bit <i>p</i> is set if the bucket for priority <i>p</i> is not empty. */
+        private int nonEmpty = 0;
+    }
+
+    /**
+     * A thread's place in a priority queue it is waiting on.
+     */
+    protected static class Waiter {
+        Waiter(ThreadState state, PriorityQueue queue) {
+            this.state = state;
+            this.queue = queue;
+        }
+
+        ThreadState state;
+        PriorityQueue queue;
+        /** Orders the threads waiting in a queue by when they started. */
+        long sequence;
+        /** The bucket this waiter is in. */
+        int priority;
+        Waiter prev, next;
     }
     
     /**
@@ -286,17 +349,21 @@ public class PriorityScheduler extends Scheduler {
      * @see	nachos.threads.KThread#schedulingState
      */
     protected class ThreadState {
-    	
     	/** The thread with which this object is associated. */
     	protected KThread thread;
     	/** The priority of the associated thread. */
     	protected int priority;
     	/** The effective priority of the associated thread. */
     	protected int effectivePriority;
-    	/** A Hashmap of all the PriorityQueues this ThreadState is waiting on mapped to the time they were waiting on them*/
-    	protected HashMap<PriorityQueue,Long> ownedQueuesList = new HashMap<PriorityQueue,Long>();
-    	/** The Set the thread has aquired */
-    	protected HashSet<PriorityQueue> onQueue = new HashSet<PriorityQueue>();
+    	/** The queues this thread is waiting on, with its place in each. */
+    	protected HashMap<PriorityQueue,Waiter> waitingOn = new HashMap<PriorityQueue,Waiter>();
+    	/**
+    	 * The number of owned queues donating each priority to this thread.
+    	 */
+    	protected int[] donations = new int[priorityMaximum+1];
+    	/** Bit <i>p</i> is set if <tt>donations[</tt><i>p</i><tt>]</tt> is not zero. */
+    	protected int donatedLevels = 0;
+
         /**
          * Allocate a new <tt>ThreadState</tt> object and associate it with the
          * specified thread.
@@ -309,7 +376,6 @@ public class PriorityScheduler extends Scheduler {
             setPriority(priorityDefault);
         }
         
-        
         /**
          * Return the priority of the associated thread.
          *
@@ -340,6 +406,7 @@ public class PriorityScheduler extends Scheduler {
             this.priority = priority;
             
             updateEffectivePriority();
+            propagateDonations();
         }
         
         /**
@@ -354,32 +421,26 @@ public class PriorityScheduler extends Scheduler {
          *
          * @see	nachos.threads.ThreadQueue#waitForAccess
          */
-        
         public void waitForAccess(PriorityQueue waitQueue) {
-            /*
-             onQueue = waitQueue;
-             if (onQueue.ownerThreadState != null) {
-             onQueue.ownerThreadState.updateEffectivePriority();
-             }
-             */
-            //if we currently own it, release and add again to update value
-            if(!ownedQueuesList.containsKey(waitQueue)){
-                this.release(waitQueue);
-                
-            }
-            //add it to the waiting queue here with the time it was added
-            this.ownedQueuesList.put(waitQueue, Machine.timer().getTime());
-            //add it to the PriorityQ for donations
-            waitQueue.priorityQ.add(this);
-            //update the owner of this priorityqueue if it has a owner
-            if(waitQueue.ownerThreadState != null){
-                waitQueue.ownerThreadState.updateEffectivePriority();
-            }
-            
-            
+            Lib.assertTrue(!waitingOn.containsKey(waitQueue));
+
+            // waiting for a queue gives up ownership of it
+            release(waitQueue);
+
+            Waiter waiter = spareWaiter;
+            if (waiter != null && waiter.queue == waitQueue)
+                spareWaiter = null;
+            else
+                waiter = new Waiter(this, waitQueue);
+            waiter.sequence = numWaitsStarted++;
+
+            waitingOn.put(waitQueue, waiter);
+            waitQueue.add(waiter);
+
+            queueChanged(waitQueue);
+            propagateDonations();
         }
         
-        
         /**
          * Called when the associated thread has acquired access to whatever is
          * guarded by <tt>waitQueue</tt>. This can occur either as a result of
@@ -390,137 +451,134 @@ public class PriorityScheduler extends Scheduler {
          * @see	nachos.threads.ThreadQueue#acquire
          * @see	nachos.threads.ThreadQueue#nextThread
          */
-        
         public void acquire(PriorityQueue waitQueue) {
-            //ownedQueuesList.add(waitQueue);
-            /*if there currently is an owner, remove him*/
-            if(waitQueue.ownerThreadState !=null){
+            if (waitQueue.ownerThreadState != null)
                 waitQueue.ownerThreadState.release(waitQueue);
+
+            Waiter waiter = waitingOn.remove(waitQueue);
+            if (waiter != null) {
+                waitQueue.remove(waiter);
+                // a thread usually waits on the same queue again, such as
+                // the ready queue, so keep its waiter for next time
+                spareWaiter = waiter;
             }
-            //remove this thread if it exisit in priorityQ since we want to update value and now is owner
-            waitQueue.priorityQ.remove(this);
-            
-            //make the owner this
+
             waitQueue.ownerThreadState = this;
-            //put it on the aquired list
-            this.onQueue.add(waitQueue);
-            //remove it from the waitlist
-            this.ownedQueuesList.remove(waitQueue);
-            
-            
-            //update accordingly
-            updateEffectivePriority();
+
+            queueChanged(waitQueue);
+            propagateDonations();
         }
         
-        
+        /**
+         * Called when the associated thread no longer owns
+         * <tt>waitQueue</tt>, because another thread acquired it or because
+         * this thread is now waiting on it.
+         */
         public void release(PriorityQueue waitQueue) {
-            //ownedQueuesList.remove(waitQueue);
-            
-            /*if there is something to release, make sure remove the owner, and update */
-            if(this.onQueue.remove(waitQueue)){
-                waitQueue.ownerThreadState = null;
+            if (waitQueue.ownerThreadState != this)
+                return;
+
+            waitQueue.ownerThreadState = null;
+
+            if (waitQueue.donatedPriority != -1) {
+                removeDonation(waitQueue.donatedPriority);
+                waitQueue.donatedPriority = -1;
+
                 updateEffectivePriority();
+                propagateDonations();
             }
-            
-            //else there was nothing to release
-            
-            
         }
         
-        
-        public void updateEffectivePriority () {
-            /*
-             if (onQueue != null && onQueue.transferPriority) {
-             //** Pull effectivePriority from all resources this thread owns*/
-			/*
-             for (PriorityQueue resourceQueue: ownedQueuesList) {
-             for (ThreadState ts: resourceQueue.priorityQ) {
-             if (ts.getEffectivePriority() > effectivePriority) {
-             effectivePriority = ts.getEffectivePriority();
-             System.out.println("updating..");
-             
-             }
-             }
-             }
-             }	
-             else {
-             effectivePriority = priority;
-             }
-             */
-            
-            //first pull out all prioritys that are currently aquired
-            for(PriorityQueue pq :  ownedQueuesList.keySet()){
-                pq.priorityQ.remove(this);
-                
-            }
-            //this is this temp state current priority
-            int tempP = this.priority;
-            
-            //for each thread that is waing, check if it can transfer
-            for(PriorityQueue pq : onQueue){
-                if(pq.transferPriority){
-                    //if it can, the first one from the priorityqueue is the best priority
-                    ThreadState beststate = pq.pickNextThread();
-                    if(beststate !=null){
-                        //if it exsist, compair with current priority
-                        int bestEP = beststate.getEffectivePriority();
-                        if(bestEP > tempP){
-                            tempP = bestEP;
-                        }
-                    }
-                }
-            }
-            //check if priority donations already happened owners
-            boolean transfering = (tempP != this.getEffectivePriority());
-            this.effectivePriority = tempP;
-            //return the owner to reset values
-            for(PriorityQueue pq: ownedQueuesList.keySet()){
-                pq.priorityQ.add(this);
-            }
-            //if owner Effect was different than it should have been
-            if(transfering){
-                for(PriorityQueue pq : ownedQueuesList.keySet()){
-                    //recalculate the owner
-                    if(pq.transferPriority && pq.ownerThreadState !=null){
-                        pq.ownerThreadState.updateEffectivePriority();
-                    }
-                }
+        /**
+         * Recompute the effective priority of the associated thread: its own
+         * priority, or the highest priority donated by a queue it owns,
+         * whichever is higher. If it changed, move this thread to its new
+         * bucket in every queue it is waiting on, and add those queues to the
+         * worklist. Does not follow the worklist; see
+         * <tt>propagateDonations()</tt>.
+         */
+        public void updateEffectivePriority() {
+            int newPriority =
+                Math.max(priority, 31 - Integer.numberOfLeadingZeros(donatedLevels));
+
+            if (newPriority == effectivePriority)
+                return;
+
+            effectivePriority = newPriority;
+
+            for (Waiter waiter : waitingOn.values()) {
+                PriorityQueue pq = waiter.queue;
+
+                pq.remove(waiter);
+                pq.add(waiter);
+
+                queueChanged(pq);
             }
-            
-            
         }
-        
-        /*
-         
-         public int compareTo(ThreadState ts) {
-         if (ts == null){
-         return -1;
-         }else if (this.getEffectivePriority() < ts.getEffectivePriority()){
-         return 1;
-         }else if (this.getEffectivePriority() > ts.getEffectivePriority()){
-         return -1;
-         }
-         else{
-         long this_age = this.ownedQueuesList.get(this.holder);
-         long other_age = ts.ownedQueuesList.get(ts.holder); 
-         if(this_age < other_age){
-         return -1;
-         } else if (this_age > other_age){
-         return 1;
-         }else{
-         return 0;
-         }
-         
-         }
-         }
-         
-         */
-        
-        
+
+        void addDonation(int priority) {
+            if (priority != -1 && donations[priority]++ == 0)
+                donatedLevels |= 1 << priority;
+        }
+
+        void removeDonation(int priority) {
+            if (priority != -1 && --donations[priority] == 0)
+                donatedLevels &= ~(1 << priority);
+        }
+
+        /** A waiter no longer in use, kept to avoid allocating another. */
+        private Waiter spareWaiter = null;
     }
-    
-    
-}
 
+    /**
+     * Add a queue whose waiters changed to the worklist, unless it is already
+     * there or does not transfer priority.
+     */
+    private void queueChanged(PriorityQueue pq) {
+        if (!pq.transferPriority || pq.changed)
+            return;
+
+        pq.changed = true;
+        pq.nextChanged = changedQueues;
+        changedQueues = pq;
+    }
+
+    /**
+     * Pass priority donations along until nothing more changes. For each
+     * queue in the worklist, if the highest priority waiting differs from the
+     * priority it donates, move its owner's donation and recompute the
+     * owner's effective priority, which adds the queues the owner waits on
+     * to the worklist only if that changed too. This walks a donation chain
+     * of any length without recursion, and stops as soon as a thread's
+     * effective priority is unchanged, so a cycle of waiting threads cannot
+     * make it loop.
+     */
+    private void propagateDonations() {
+        while (changedQueues != null) {
+            PriorityQueue pq = changedQueues;
+            changedQueues = pq.nextChanged;
+            pq.nextChanged = null;
+            pq.changed = false;
 
+            ThreadState owner = pq.ownerThreadState;
+            if (owner == null)
+                continue;
 
+            int donation = pq.getHighestPriority();
+            if (donation == pq.donatedPriority)
+                continue;
+
+            owner.removeDonation(pq.donatedPriority);
+            owner.addDonation(donation);
+            pq.donatedPriority = donation;
+
+            owner.updateEffectivePriority();
+        }
+    }
+
+    /** The queues whose donations may be out of date. */
+    private PriorityQueue changedQueues = null;
+
+    /** Numbers the calls to <tt>waitForAccess()</tt>, in order. */
+    private long numWaitsStarted = 0;
+}
@@ -0,0 +1,277 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * A <tt>ReadWriteLock</tt> lets any number of threads hold it for reading at
+ * once, or one thread hold it for writing. Use it for data that is read much
+ * more often than it is changed, so that readers do not serialize each other.
+ *
+ * <p>
+ * The lock is phase-fair. A reader that arrives while a writer holds the
+ * lock or is waiting for it waits, so a stream of readers cannot starve
+ * writers. When a writer releases the lock, every waiting reader gets it
+ * together; when the last reader releases it, the next waiting writer gets
+ * it. So neither side can starve the other.
+ *
+ * <p>
+ * With a <tt>PriorityScheduler</tt>, waiting threads donate their priority to
+ * every thread holding the lock, as they would through a <tt>Lock</tt>. A
+ * queue has only one owner, so each holder that has threads waiting on it
+ * gets a donation queue of its own, holding every waiting thread. When a
+ * holder releases the lock, its donation queue is emptied and dropped, and
+ * when the lock is handed to new holders, the threads still waiting join
+ * theirs; so a thread that no longer holds the lock keeps no donation.
+ */
+public class ReadWriteLock {
+    /**
+     * Allocate a new read-write lock. The lock will initially be free.
+     */
+    public ReadWriteLock() {
+    }
+
+    /**
+     * Atomically acquire this lock for reading. The current thread must not
+     * already hold this lock.
+     */
+    public void acquireRead() {
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	if (writer == null && numWaitingWriters == 0) {
+	    readers.add(thread);
+	}
+	else {
+	    numWaitingReaders++;
+	    waitFor(readQueue, thread);
+	    KThread.sleep();
+	}
+
+	Lib.assertTrue(readers.contains(thread));
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Acquire this lock for reading if that can be done without waiting. The
+     * current thread must not already hold this lock.
+     *
+     * @return	<tt>true</tt> if the lock was acquired.
+     */
+    public boolean tryAcquireRead() {
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean acquired = (writer == null && numWaitingWriters == 0);
+	if (acquired)
+	    readers.add(thread);
+
+	Machine.interrupt().restore(intStatus);
+	return acquired;
+    }
+
+    /**
+     * Atomically release this lock, which the current thread holds for
+     * reading. If it was the last reader, the next waiting writer acquires
+     * the lock.
+     */
+    public void releaseRead() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	Lib.assertTrue(readers.remove(thread));
+	stopDonations(thread);
+
+	if (readers.isEmpty() && numWaitingWriters > 0)
+	    grantWrite();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically acquire this lock for writing. The current thread must not
+     * already hold this lock.
+     */
+    public void acquireWrite() {
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	if (writer == null && readers.isEmpty()) {
+	    writer = thread;
+	}
+	else {
+	    numWaitingWriters++;
+	    waitFor(writeQueue, thread);
+	    KThread.sleep();
+	}
+
+	Lib.assertTrue(writer == thread);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Acquire this lock for writing if it is free. The current thread must
+     * not already hold this lock.
+     *
+     * @return	<tt>true</tt> if the lock was acquired.
+     */
+    public boolean tryAcquireWrite() {
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean acquired = (writer == null && readers.isEmpty());
+	if (acquired)
+	    writer = thread;
+
+	Machine.interrupt().restore(intStatus);
+	return acquired;
+    }
+
+    /**
+     * Atomically release this lock, which the current thread holds for
+     * writing. Every waiting reader acquires the lock if there are any, and
+     * otherwise the next waiting writer does.
+     */
+    public void releaseWrite() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Lib.assertTrue(isWriteHeldByCurrentThread());
+
+	stopDonations(writer);
+	writer = null;
+
+	if (numWaitingReaders > 0) {
+	    KThread reader;
+	    while ((reader = readQueue.nextThread()) != null) {
+		waiting.remove(reader);
+		readers.add(reader);
+		reader.ready();
+	    }
+	    numWaitingReaders = 0;
+
+	    // the writers still waiting now wait for these readers
+	    for (KThread holder : readers)
+		startDonations(holder);
+	}
+	else if (numWaitingWriters > 0) {
+	    grantWrite();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if the current thread holds this lock, for reading or writing.
+     *
+     * @return	<tt>true</tt> if the current thread holds this lock.
+     */
+    public boolean isHeldByCurrentThread() {
+	KThread thread = KThread.currentThread();
+
+	return writer == thread || readers.contains(thread);
+    }
+
+    /**
+     * Test if the current thread holds this lock for writing.
+     *
+     * @return	<tt>true</tt> if the current thread holds this lock for
+     *		writing.
+     */
+    public boolean isWriteHeldByCurrentThread() {
+	return writer == KThread.currentThread();
+    }
+
+    /**
+     * Hand the lock to the next waiting writer.
+     */
+    private void grantWrite() {
+	writer = writeQueue.nextThread();
+	numWaitingWriters--;
+	waiting.remove(writer);
+	startDonations(writer);
+
+	writer.ready();
+    }
+
+    /**
+     * Put the current thread in <i>queue</i> to wait for the lock, and have
+     * it donate to every thread holding the lock.
+     */
+    private void waitFor(ThreadQueue queue, KThread thread) {
+	queue.waitForAccess(thread);
+	waiting.add(thread);
+
+	if (writer != null)
+	    donationQueue(writer).waitForAccess(thread);
+	for (KThread holder : readers)
+	    donationQueue(holder).waitForAccess(thread);
+    }
+
+    /**
+     * Have every waiting thread donate to <i>holder</i>, which was just
+     * handed the lock.
+     */
+    private void startDonations(KThread holder) {
+	for (KThread thread : waiting)
+	    donationQueue(holder).waitForAccess(thread);
+    }
+
+    /**
+     * Stop the waiting threads donating to <i>holder</i>, which is releasing
+     * the lock, by emptying its donation queue.
+     */
+    private void stopDonations(KThread holder) {
+	ThreadQueue queue = donationQueues.remove(holder);
+	if (queue != null) {
+	    while (queue.nextThread() != null)
+		;
+	}
+    }
+
+    /**
+     * Return the donation queue of <i>holder</i>, allocating it if the
+     * holder does not have one yet.
+     */
+    private ThreadQueue donationQueue(KThread holder) {
+	ThreadQueue queue = donationQueues.get(holder);
+	if (queue == null) {
+	    queue = ThreadedKernel.scheduler.newThreadQueue(true);
+	    queue.acquire(holder);
+	    donationQueues.put(holder, queue);
+	}
+	return queue;
+    }
+
+    private KThread writer = null;
+    private HashSet<KThread> readers = new HashSet<KThread>();
+    private int numWaitingReaders = 0;
+    private int numWaitingWriters = 0;
+
+    /** The threads waiting in <tt>readQueue</tt> or <tt>writeQueue</tt>. */
+    private LinkedHashSet<KThread> waiting = new LinkedHashSet<KThread>();
+    /**
+     * The donation queue of each holder that has had threads waiting on it.
+     * Every thread in <tt>waiting</tt> waits in each of them.
+     */
+    private HashMap<KThread,ThreadQueue> donationQueues =
+	new HashMap<KThread,ThreadQueue>();
+
+    private ThreadQueue readQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ThreadQueue writeQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
@@ -154,4 +154,16 @@ public abstract class Scheduler {
     public boolean decreasePriority() {
 	return false;
     }
+
+    /**
+     * Called by the alarm on every timer interrupt, with interrupts disabled,
+     * to decide whether the current thread should give up the CPU. The
+     * default never preempts; a scheduler that hands out time slices
+     * overrides this to end them.
+     *
+     * @return	<tt>true</tt> if the current thread should yield.
+     */
+    public boolean timerInterrupt() {
+	return false;
+    }
 }
@@ -31,6 +31,21 @@ public class Semaphore {
 	value = initialValue;
     }
 
+    /**
+     * Allocate a new semaphore with a name, under which the waits in
+     * <tt>P()</tt> are profiled if profiling is enabled.
+     *
+     * @param	initialValue	the initial value of this semaphore.
+     * @param	name		the name of this semaphore.
+     *
+     * @see	nachos.threads.LockStats
+     */
+    public Semaphore(int initialValue, String name) {
+	this(initialValue);
+
+	stats = LockStats.create("semaphore", name);
+    }
+
     /**
      * Atomically wait for this semaphore to become non-zero and decrement it.
      */
@@ -38,11 +53,18 @@ public class Semaphore {
 	boolean intStatus = Machine.interrupt().disable();
 
 	if (value == 0) {
+	    long waitStart = Machine.timer().getTime();
 	    waitQueue.waitForAccess(KThread.currentThread());
 	    KThread.sleep();
+
+	    if (stats != null)
+		stats.acquired(waitStart);
 	}
 	else {
 	    value--;
+
+	    if (stats != null)
+		stats.acquired();
 	}
 
 	Machine.interrupt().restore(intStatus);
@@ -99,6 +121,7 @@ public class Semaphore {
     }
 
     private int value;
+    private LockStats stats = null;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(false);
 }
@@ -0,0 +1,442 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.HashMap;
+
+/**
+ * A scheduler that gives threads access in proportion to their tickets,
+ * deterministically.
+ *
+ * <p>
+ * Each queue keeps a virtual time, and each waiting thread has a <i>pass</i>
+ * in that time. The thread with the lowest pass is dequeued next, and the
+ * queue's virtual time advances to its pass. A thread that starts waiting
+ * gets a pass one <i>stride</i> past the queue's virtual time, where its
+ * stride is inversely proportional to its tickets. Over any interval, then,
+ * each thread is chosen in proportion to its tickets to within one choice,
+ * with none of a lottery's variance. Among threads with the same pass, the
+ * one that has waited longest is chosen.
+ *
+ * <p>
+ * As with a lottery scheduler, tickets are transferred through locks and
+ * joins, and add. When a waiting thread's tickets change, what remains of
+ * its stride is rescaled, so the change takes effect immediately.
+ */
+public class StrideScheduler extends Scheduler {
+    /**
+     * Allocate a new stride scheduler.
+     */
+    public StrideScheduler() {
+    }
+
+    /**
+     * Allocate a new stride thread queue.
+     *
+     * @param	transferPriority	<tt>true</tt> if this queue should
+     *					transfer tickets from waiting threads
+     *					to the owning thread.
+     * @return	a new stride thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new StrideQueue(transferPriority);
+    }
+
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).getTickets();
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).getEffectiveTickets();
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= priorityMinimum &&
+		   priority <= priorityMaximum);
+
+	getThreadState(thread).setTickets(priority);
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	boolean changed = (priority != priorityMaximum);
+	if (changed)
+	    setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return changed;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	boolean changed = (priority != priorityMinimum);
+	if (changed)
+	    setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return changed;
+    }
+
+    /**
+     * The default number of tickets for a new thread. Do not change this
+     * value.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets a thread can have. Do not change this
+     * value.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets a thread can have. Do not change this
+     * value.
+     */
+    public static final int priorityMaximum = Integer.MAX_VALUE;
+
+    /**
+     * The stride of a thread with one ticket. A thread's stride is this
+     * divided by its effective tickets, but at least one.
+     */
+    private static final long stride1 = 1L << 30;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * Compare two passes. Passes are compared by their difference, so they
+     * may wrap around as long as no two waiting threads are more than
+     * 2<sup>63</sup> apart.
+     */
+    private static boolean before(Entry a, Entry b) {
+	long diff = a.pass - b.pass;
+	return diff < 0 || (diff == 0 && a.sequence < b.sequence);
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that orders threads by pass, in a binary
+     * min-heap.
+     */
+    protected class StrideQueue extends ThreadQueue {
+	StrideQueue(boolean transferTickets) {
+	    this.transferTickets = transferTickets;
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    getThreadState(thread).waitForAccess(this);
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    getThreadState(thread).acquire(this);
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    if (size == 0)
+		return null;
+
+	    Entry next = heap[0];
+	    virtualTime = next.pass;
+
+	    next.state.acquire(this);
+	    return next.state.thread;
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i = 0; i < size; i++)
+		System.out.print(heap[i].state.thread + " (" + heap[i].pass + ") ");
+	    System.out.println();
+	}
+
+	void insert(Entry entry) {
+	    if (size == heap.length) {
+		Entry[] larger = new Entry[heap.length*2];
+		System.arraycopy(heap, 0, larger, 0, size);
+		heap = larger;
+	    }
+
+	    entry.index = size++;
+	    heap[entry.index] = entry;
+	    siftUp(entry.index);
+	}
+
+	void remove(Entry entry) {
+	    int i = entry.index;
+	    Entry last = heap[--size];
+	    heap[size] = null;
+
+	    if (last != entry) {
+		last.index = i;
+		heap[i] = last;
+		reposition(last);
+	    }
+	}
+
+	/**
+	 * Restore the heap order after the pass of an entry changed.
+	 */
+	void reposition(Entry entry) {
+	    siftUp(entry.index);
+	    siftDown(entry.index);
+	}
+
+	private void siftUp(int i) {
+	    Entry entry = heap[i];
+
+	    while (i > 0) {
+		int parent = (i-1) / 2;
+		if (!before(entry, heap[parent]))
+		    break;
+
+		heap[i] = heap[parent];
+		heap[i].index = i;
+		i = parent;
+	    }
+
+	    heap[i] = entry;
+	    entry.index = i;
+	}
+
+	private void siftDown(int i) {
+	    Entry entry = heap[i];
+
+	    while (2*i+1 < size) {
+		int child = 2*i+1;
+		if (child+1 < size && before(heap[child+1], heap[child]))
+		    child++;
+		if (!before(heap[child], entry))
+		    break;
+
+		heap[i] = heap[child];
+		heap[i].index = i;
+		i = child;
+	    }
+
+	    heap[i] = entry;
+	    entry.index = i;
+	}
+
+	/**
+	 * <tt>true</tt> if this queue should transfer tickets from waiting
+	 * threads to the owning thread.
+	 */
+	boolean transferTickets;
+	/** The thread that last acquired this queue, if it still owns it. */
+	ThreadState owner = null;
+	/** The pass of the thread most recently dequeued. */
+	long virtualTime = 0;
+	/** The sum of the effective tickets of the waiting threads. */
+	long totalTickets = 0;
+
+	private Entry[] heap = new Entry[8];
+	private int size = 0;
+    }
+
+    /**
+     * A thread's place in a stride queue it is waiting on.
+     */
+    protected static class Entry {
+	Entry(ThreadState state, StrideQueue queue) {
+	    this.state = state;
+	    this.queue = queue;
+	}
+
+	ThreadState state;
+	StrideQueue queue;
+	long pass;
+	/** Orders threads with the same pass by when they started waiting. */
+	long sequence;
+	/** The position of this entry in its queue's heap. */
+	int index;
+    }
+
+    /**
+     * The scheduling state of a thread: its tickets, its effective tickets
+     * including those transferred to it, and the queues it is waiting on.
+     */
+    protected class ThreadState {
+	/**
+	 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+	 * specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public ThreadState(KThread thread) {
+	    this.thread = thread;
+	}
+
+	/**
+	 * Return the number of tickets of the associated thread.
+	 *
+	 * @return	the number of tickets.
+	 */
+	public int getTickets() {
+	    return tickets;
+	}
+
+	/**
+	 * Return the effective number of tickets of the associated thread: its
+	 * own tickets, plus those of every thread waiting on a queue it owns
+	 * that transfers tickets.
+	 *
+	 * @return	the effective number of tickets, at most
+	 *		<tt>Integer.MAX_VALUE</tt>.
+	 */
+	public int getEffectiveTickets() {
+	    return (int) Math.min(effectiveTickets, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Set the number of tickets of the associated thread.
+	 *
+	 * @param	tickets	the new number of tickets.
+	 */
+	public void setTickets(int tickets) {
+	    long delta = tickets - this.tickets;
+	    this.tickets = tickets;
+
+	    changeEffectiveTickets(delta);
+	}
+
+	/**
+	 * Called when the associated thread starts waiting on
+	 * <tt>waitQueue</tt>. It joins one stride past the queue's virtual
+	 * time.
+	 *
+	 * @param	waitQueue	the queue the thread is now waiting on.
+	 */
+	public void waitForAccess(StrideQueue waitQueue) {
+	    Lib.assertTrue(!waitingOn.containsKey(waitQueue));
+
+	    // waiting for a queue gives up ownership of it
+	    release(waitQueue);
+
+	    Entry entry = new Entry(this, waitQueue);
+	    entry.pass = waitQueue.virtualTime + getStride();
+	    entry.sequence = numWaitsStarted++;
+
+	    waitingOn.put(waitQueue, entry);
+	    waitQueue.insert(entry);
+	    waitQueue.totalTickets += effectiveTickets;
+
+	    if (waitQueue.transferTickets && waitQueue.owner != null)
+		waitQueue.owner.changeEffectiveTickets(effectiveTickets);
+	}
+
+	/**
+	 * Called when the associated thread has acquired <tt>waitQueue</tt>,
+	 * either through <tt>acquire()</tt> or by being dequeued.
+	 *
+	 * @param	waitQueue	the queue that was acquired.
+	 */
+	public void acquire(StrideQueue waitQueue) {
+	    if (waitQueue.owner != null)
+		waitQueue.owner.release(waitQueue);
+
+	    Entry entry = waitingOn.remove(waitQueue);
+	    if (entry != null) {
+		waitQueue.remove(entry);
+		waitQueue.totalTickets -= effectiveTickets;
+	    }
+
+	    waitQueue.owner = this;
+
+	    if (waitQueue.transferTickets)
+		changeEffectiveTickets(waitQueue.totalTickets);
+	}
+
+	/**
+	 * Called when the associated thread no longer owns
+	 * <tt>waitQueue</tt>.
+	 *
+	 * @param	waitQueue	the queue it owned.
+	 */
+	public void release(StrideQueue waitQueue) {
+	    if (waitQueue.owner != this)
+		return;
+
+	    waitQueue.owner = null;
+
+	    if (waitQueue.transferTickets)
+		changeEffectiveTickets(-waitQueue.totalTickets);
+	}
+
+	/**
+	 * Add <tt>delta</tt> to the effective tickets of the associated
+	 * thread. In each queue it is waiting on, rescale the rest of its
+	 * stride to the new stride and pass the change on to the queue's
+	 * owner.
+	 */
+	private void changeEffectiveTickets(long delta) {
+	    if (delta == 0)
+		return;
+
+	    long oldStride = getStride();
+	    effectiveTickets += delta;
+	    long newStride = getStride();
+
+	    for (Entry entry : waitingOn.values()) {
+		StrideQueue queue = entry.queue;
+
+		queue.totalTickets += delta;
+
+		if (newStride != oldStride) {
+		    // what remains is between 0 and the old stride
+		    long remain = entry.pass - queue.virtualTime;
+		    entry.pass = queue.virtualTime + remain*newStride/oldStride;
+		    queue.reposition(entry);
+		}
+
+		if (queue.transferTickets && queue.owner != null)
+		    queue.owner.changeEffectiveTickets(delta);
+	    }
+	}
+
+	private long getStride() {
+	    return Math.max(1, stride1 / effectiveTickets);
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The tickets of the associated thread. */
+	protected int tickets = priorityDefault;
+	/** The effective tickets of the associated thread. */
+	protected long effectiveTickets = priorityDefault;
+	/** The queues this thread is waiting on, with its place in each. */
+	protected HashMap<StrideQueue,Entry> waitingOn =
+	    new HashMap<StrideQueue,Entry>();
+    }
+
+    /** Numbers the calls to <tt>waitForAccess()</tt>, in order. */
+    private long numWaitsStarted = 0;
+}
@@ -1,25 +1,48 @@
 package nachos.threads;
 
-import java.util.LinkedList;
+import java.util.Collection;
 import nachos.machine.*;
 import nachos.threads.*;
 
 /**
- * A synchronized queue.
+ * A synchronized queue, backed by a circular array.
+ *
+ * <p>
+ * A queue may be bounded, in which case adding to a full queue blocks, or
+ * unbounded, in which case the array grows as needed. Besides adding and
+ * removing one object at a time, objects can be added and removed in bulk,
+ * taking the lock once and waking as many waiting threads as the objects
+ * can satisfy.
  */
 public class SynchList {
     /**
-     * Allocate a new synchronized queue.
+     * Allocate a new unbounded synchronized queue.
      */
     public SynchList() {
-	list = new LinkedList<Object>();
+	this(0);
+    }
+
+    /**
+     * Allocate a new synchronized queue.
+     *
+     * @param	capacity	the most objects the queue can hold, or 0 for
+     *				no limit.
+     */
+    public SynchList(int capacity) {
+	Lib.assertTrue(capacity >= 0);
+
+	this.capacity = capacity;
+	items = new Object[capacity > 0 ? capacity : 8];
+
 	lock = new Lock();
 	listEmpty = new Condition(lock);
+	listFull = new Condition(lock);
     }
 
     /**
-     * Add the specified object to the end of the queue. If another thread is
-     * waiting in <tt>removeFirst()</tt>, it is woken up.
+     * Add the specified object to the end of the queue, blocking until there
+     * is room if the queue is bounded. If another thread is waiting in
+     * <tt>removeFirst()</tt>, it is woken up.
      *
      * @param	o	the object to add. Must not be <tt>null</tt>.
      */
@@ -27,11 +50,65 @@ public class SynchList {
 	Lib.assertTrue(o != null);
 	
 	lock.acquire();
-	list.add(o);
+	while (isFull())
+	    sleepWhileFull();
+	enqueue(o);
 	listEmpty.wake();
 	lock.release();
     }
 
+    /**
+     * Add the specified object to the end of the queue if there is room,
+     * without blocking.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @return	<tt>true</tt> if the object was added, <tt>false</tt> if the
+     *		queue is full.
+     */
+    public boolean offer(Object o) {
+	Lib.assertTrue(o != null);
+
+	lock.acquire();
+	boolean added = !isFull();
+	if (added) {
+	    enqueue(o);
+	    listEmpty.wake();
+	}
+	lock.release();
+
+	return added;
+    }
+
+    /**
+     * Add every object in a collection to the end of the queue, in order.
+     * If the queue is bounded and fills up, the objects added so far are
+     * made available and this blocks until there is room for more.
+     *
+     * @param	c	the objects to add. None may be <tt>null</tt>.
+     */
+    public void addAll(Collection<?> c) {
+	lock.acquire();
+
+	int added = 0;
+	for (Object o : c) {
+	    Lib.assertTrue(o != null);
+
+	    if (isFull()) {
+		wake(listEmpty, added, waitingRemovers);
+		added = 0;
+
+		while (isFull())
+		    sleepWhileFull();
+	    }
+
+	    enqueue(o);
+	    added++;
+	}
+	wake(listEmpty, added, waitingRemovers);
+
+	lock.release();
+    }
+
     /**
      * Remove an object from the front of the queue, blocking until the queue
      * is non-empty if necessary.
@@ -42,14 +119,115 @@ public class SynchList {
 	Object o;
 
 	lock.acquire();
-	while (list.isEmpty())
+	while (count == 0) {
+	    waitingRemovers++;
 	    listEmpty.sleep();
-	o = list.removeFirst();
+	    waitingRemovers--;
+	}
+	o = dequeue();
+	listFull.wake();
 	lock.release();
 
 	return o;
     }
 
+    /**
+     * Remove an object from the front of the queue if there is one, without
+     * blocking.
+     *
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue is empty.
+     */
+    public Object poll() {
+	Object o = null;
+
+	lock.acquire();
+	if (count > 0) {
+	    o = dequeue();
+	    listFull.wake();
+	}
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Remove up to <i>max</i> objects from the front of the queue and add
+     * them, in order, to a collection, without blocking.
+     *
+     * @param	c	the collection to add the objects to.
+     * @param	max	the most objects to remove.
+     * @return	the number of objects removed.
+     */
+    public int drainTo(Collection<Object> c, int max) {
+	lock.acquire();
+
+	int n = Math.min(max, count);
+	for (int i = 0; i < n; i++)
+	    c.add(dequeue());
+	wake(listFull, n, waitingAdders);
+
+	lock.release();
+
+	return n;
+    }
+
+    /**
+     * Return the number of objects in the queue. The answer may be out of
+     * date as soon as it is returned.
+     *
+     * @return	the number of objects in the queue.
+     */
+    public int size() {
+	lock.acquire();
+	int size = count;
+	lock.release();
+
+	return size;
+    }
+
+    private boolean isFull() {
+	return capacity > 0 && count == capacity;
+    }
+
+    private void sleepWhileFull() {
+	waitingAdders++;
+	listFull.sleep();
+	waitingAdders--;
+    }
+
+    /**
+     * Wake as many threads sleeping on a condition as <i>n</i> objects can
+     * satisfy.
+     */
+    private void wake(Condition condition, int n, int waiting) {
+	for (int i = Math.min(n, waiting); i > 0; i--)
+	    condition.wake();
+    }
+
+    private void enqueue(Object o) {
+	if (count == items.length) {
+	    // only an unbounded queue gets here
+	    Object[] larger = new Object[items.length*2];
+	    for (int i = 0; i < count; i++)
+		larger[i] = items[(head + i) % items.length];
+	    items = larger;
+	    head = 0;
+	}
+
+	items[(head + count) % items.length] = o;
+	count++;
+    }
+
+    private Object dequeue() {
+	Object o = items[head];
+	items[head] = null;
+	head = (head + 1) % items.length;
+	count--;
+
+	return o;
+    }
+
     private static class PingTest implements Runnable {
 	PingTest(SynchList ping, SynchList pong) {
 	    this.ping = ping;
@@ -81,8 +259,17 @@ public class SynchList {
 	}
     }
 
-    private LinkedList<Object> list;
+    private int capacity;
+    private Object[] items;
+    /** The index of the object at the front of the queue. */
+    private int head = 0;
+    /** The number of objects in the queue. */
+    private int count = 0;
+
     private Lock lock;
     private Condition listEmpty;
+    private Condition listFull;
+    private int waitingRemovers = 0;
+    private int waitingAdders = 0;
 }
 
@@ -15,7 +15,9 @@ public class ThreadedKernel extends Kernel {
 
 	/**
 	 * Initialize this kernel. Creates a scheduler, the first thread, and an
-	 * alarm, and enables interrupts. Creates a file system if necessary.
+	 * alarm, and enables interrupts. Creates a file system if necessary, and
+	 * starts profiling named locks if <tt>ThreadedKernel.lockStats</tt> is
+	 * set.
 	 */
 	public void initialize(String[] args) {
 		// set scheduler
@@ -36,6 +38,10 @@ public class ThreadedKernel extends Kernel {
 
 		alarm = new Alarm();
 
+		if (Config.getBoolean("ThreadedKernel.lockStats", false))
+			LockStats.enable(Config.getInteger(
+					"ThreadedKernel.lockStatsInterval", 0));
+
 		Machine.interrupt().enable();
 	}
 
@@ -63,9 +69,11 @@ public class ThreadedKernel extends Kernel {
 	}
 
 	/**
-	 * Terminate this kernel. Never returns.
+	 * Terminate this kernel, printing the lock contention statistics if
+	 * any. Never returns.
 	 */
 	public void terminate() {
+		LockStats.print();
 		Machine.halt();
 	}
 
@@ -84,4 +92,8 @@ public class ThreadedKernel extends Kernel {
 	private static Communicator dummy5 = null;
 	private static Rider dummy6 = null;
 	private static ElevatorController dummy7 = null;
+	private static StrideScheduler dummy8 = null;
+	private static MLFQScheduler dummy9 = null;
+	private static ReadWriteLock dummy10 = null;
+	private static Channel dummy11 = null;
 }
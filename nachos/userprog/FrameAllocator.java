@@ -0,0 +1,148 @@
+package nachos.userprog;
+
+import nachos.machine.Lib;
+import nachos.machine.Machine;
+import nachos.threads.Lock;
+
+/**
+ * An allocator for pages of physical memory. Free page numbers are kept on an
+ * array-based stack, so that allocating or freeing a page never boxes an
+ * integer or allocates a list node, and a bitmap records which pages are
+ * currently allocated so that double frees are caught.
+ *
+ * <p>
+ * The stack hands back the most recently freed pages first, which keeps the
+ * working set of physical memory small when processes come and go.
+ */
+public class FrameAllocator {
+	/**
+	 * Allocate a new frame allocator managing physical pages <tt>0</tt>
+	 * through <tt>numPhysPages - 1</tt>, all of which are initially free.
+	 *
+	 * @param numPhysPages the number of physical pages to manage.
+	 */
+	public FrameAllocator(int numPhysPages) {
+		Lib.assertTrue(numPhysPages >= 0);
+
+		freeStack = new int[numPhysPages];
+		used = new boolean[numPhysPages];
+
+		// push in reverse so that pages are first handed out in ascending order
+		for (int ppn = numPhysPages - 1; ppn >= 0; ppn--)
+			freeStack[numFree++] = ppn;
+
+		report();
+	}
+
+	/**
+	 * Allocate a single physical page.
+	 *
+	 * @return the allocated page number, or <tt>-1</tt> if no page is free.
+	 */
+	public int allocate() {
+		lock.acquire();
+
+		int ppn = -1;
+		if (numFree > 0) {
+			ppn = pop();
+			report();
+		}
+
+		lock.release();
+		return ppn;
+	}
+
+	/**
+	 * Allocate <i>n</i> physical pages at once. Either all of the pages are
+	 * allocated, or none of them are.
+	 *
+	 * @param n the number of pages to allocate.
+	 * @return the allocated page numbers, or <tt>null</tt> if fewer than
+	 *         <i>n</i> pages are free.
+	 */
+	public int[] allocate(int n) {
+		Lib.assertTrue(n >= 0);
+
+		lock.acquire();
+
+		int[] ppns = null;
+		if (n <= numFree) {
+			ppns = new int[n];
+			for (int i = 0; i < n; i++)
+				ppns[i] = pop();
+			report();
+		}
+
+		lock.release();
+		return ppns;
+	}
+
+	/**
+	 * Free a single physical page.
+	 *
+	 * @param ppn the page to free. It must currently be allocated.
+	 */
+	public void free(int ppn) {
+		lock.acquire();
+
+		push(ppn);
+		report();
+
+		lock.release();
+	}
+
+	/**
+	 * Free all of the specified physical pages at once.
+	 *
+	 * @param ppns the pages to free. They must all currently be allocated.
+	 */
+	public void free(int[] ppns) {
+		lock.acquire();
+
+		for (int i = 0; i < ppns.length; i++)
+			push(ppns[i]);
+		report();
+
+		lock.release();
+	}
+
+	/**
+	 * Return the number of physical pages that are currently free.
+	 *
+	 * @return the number of free pages.
+	 */
+	public int getNumFree() {
+		return numFree;
+	}
+
+	/**
+	 * Return the number of physical pages that are currently allocated.
+	 *
+	 * @return the number of allocated pages.
+	 */
+	public int getNumUsed() {
+		return freeStack.length - numFree;
+	}
+
+	private int pop() {
+		int ppn = freeStack[--numFree];
+		used[ppn] = true;
+		return ppn;
+	}
+
+	private void push(int ppn) {
+		Lib.assertTrue(ppn >= 0 && ppn < used.length && used[ppn]);
+
+		used[ppn] = false;
+		freeStack[numFree++] = ppn;
+	}
+
+	private void report() {
+		Machine.processor().reportPhysPages(getNumFree(), getNumUsed());
+	}
+
+	private int[] freeStack;
+	private boolean[] used;
+	private int numFree = 0;
+	private Lock lock = new Lock("FrameAllocator.lock");
+}
@@ -1,7 +1,5 @@
 package nachos.userprog;
 
-import java.util.LinkedList;
-
 import nachos.machine.Coff;
 import nachos.machine.Lib;
 import nachos.machine.Machine;
@@ -30,10 +28,11 @@ public class UserKernel extends ThreadedKernel {
 		super.initialize(args);
 
 		console = new SynchConsole(Machine.console());
-		memory = new LinkedList<Integer>();
-		for (int k = 0; k < Machine.processor().getNumPhysPages(); k++) {
-			memory.add(k);
-		}
+		memory = new FrameAllocator(Machine.processor().getNumPhysPages());
+		// created here, not statically, so the lock's queue comes from the
+		// configured scheduler
+		joinLock = new Lock("UserKernel.joinLock");
+		waiting = new Condition(joinLock, "UserKernel.waiting");
 		Machine.processor().setExceptionHandler(new Runnable() {
 			public void run() {
 				exceptionHandler();
@@ -111,14 +110,15 @@ public class UserKernel extends ThreadedKernel {
 		KThread.currentThread().finish();
 	}
 
-	public static LinkedList<Integer> getMemory() {
+	/**
+	 * Returns the allocator that hands out pages of physical memory.
+	 * 
+	 * @return the physical page allocator.
+	 */
+	public static FrameAllocator getMemory() {
 		return memory;
 	}
 
-	public void setMemory(LinkedList<Integer> memory) {
-		this.memory = memory;
-	}
-
 	/**
 	 * Terminate this kernel. Never returns.
 	 */
@@ -128,10 +128,10 @@ public class UserKernel extends ThreadedKernel {
 
 	/** Globally accessible reference to the synchronized console. */
 	public static SynchConsole console;
-	public static LinkedList<Integer> memory;
-	public static Lock memoryLock = new Lock();
-	public static Lock joinLock = new Lock();
-	public static Condition waiting = new Condition(joinLock);
+	/** The allocator for pages of physical memory. */
+	public static FrameAllocator memory;
+	public static Lock joinLock;
+	public static Condition waiting;
 	// dummy variables to make javac smarter
 	private static Coff dummy1 = null;
 }
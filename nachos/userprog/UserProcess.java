@@ -166,22 +166,16 @@ public class UserProcess {
 
 		byte[] memory = Machine.processor().getMemory();
 
-		// for now, just assume that virtual addresses equal physical addresses
-		if (vaddr < 0 || vaddr >= pageTable.length * Machine.processor().pageSize)
-			return 0;
-		int pageno = Machine.processor().pageFromAddress(vaddr);
-		int offfset = Machine.processor().offsetFromAddress(vaddr);
-		TranslationEntry entry = pageTable[pageno];
 		int total = 0;
-		while (length > 0 && entry.valid) {
-			int amount = Math.min(Machine.processor().pageSize, length);
-			System.arraycopy(memory, entry.ppn * Machine.processor().pageSize
-					+ offfset, data, offset, amount);
-			entry.used = true;
-			length -= Machine.processor().pageSize;
-			
-			entry = pageTable[pageno];
-			pageno += 1;
+		while (total < length) {
+			int paddr = translateForTransfer(vaddr + total, false);
+			if (paddr == -1)
+				break;
+
+			int amount = Math.min(pageSize - Processor.offsetFromAddress(paddr),
+					length - total);
+			System.arraycopy(memory, paddr, data, offset + total, amount);
+			releaseTransfer(paddr);
 			total += amount;
 		}
 		return total;
@@ -223,28 +217,148 @@ public class UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 		byte[] memory = Machine.processor().getMemory();
-		// for now, don't assume that virtual addresses equal physical addresses
-		if (vaddr < 0 || vaddr >= pageTable.length * Machine.processor().pageSize)
-			return 0;
-		int pageno = Machine.processor().pageFromAddress(vaddr);
-		int offfset = Machine.processor().offsetFromAddress(vaddr);
-		TranslationEntry entry = pageTable[pageno];
+
 		int total = 0;
-		while (length > 0 && entry.valid && !entry.readOnly) {
-			int amount = Math.min(Machine.processor().pageSize, length);
-			System.arraycopy(data, offset, memory,
-					entry.ppn * Machine.processor().pageSize + offfset, amount);
-			entry.dirty = true;
-			entry.used = true;
-			length -= Machine.processor().pageSize;
-			
-			entry = pageTable[pageno];
-			pageno += 1;
+		while (total < length) {
+			int paddr = translateForTransfer(vaddr + total, true);
+			if (paddr == -1)
+				break;
+
+			int amount = Math.min(pageSize - Processor.offsetFromAddress(paddr),
+					length - total);
+			System.arraycopy(data, offset + total, memory, paddr, amount);
+			releaseTransfer(paddr);
 			total += amount;
 		}
 		return total;
 	}
 
+	/**
+	 * Read up to <i>length</i> bytes from the specified file directly into
+	 * this process's virtual memory, one page at a time, without staging the
+	 * data in an intermediate buffer. Stops early at the first page that is
+	 * not mapped or not writable, or when the file returns fewer bytes than
+	 * were asked for.
+	 * 
+	 * @param file
+	 *            the file to read from.
+	 * @param vaddr
+	 *            the first byte of virtual memory to write.
+	 * @param length
+	 *            the number of bytes to transfer.
+	 * @return the number of bytes transferred, or -1 if the file reported an
+	 *         error before any bytes were transferred.
+	 */
+	public int readFileToVirtualMemory(OpenFile file, int vaddr, int length) {
+		Lib.assertTrue(length >= 0);
+
+		byte[] memory = Machine.processor().getMemory();
+
+		int total = 0;
+		while (total < length) {
+			int paddr = translateForTransfer(vaddr + total, true);
+			if (paddr == -1)
+				break;
+
+			int amount = Math.min(pageSize - Processor.offsetFromAddress(paddr),
+					length - total);
+			int read = file.read(memory, paddr, amount);
+			releaseTransfer(paddr);
+			if (read == -1)
+				return (total > 0) ? total : -1;
+
+			total += read;
+			if (read < amount)
+				break;
+		}
+		return total;
+	}
+
+	/**
+	 * Write up to <i>length</i> bytes from this process's virtual memory
+	 * directly to the specified file, one page at a time, without staging the
+	 * data in an intermediate buffer. Stops early at the first page that is
+	 * not mapped, or when the file accepts fewer bytes than were offered.
+	 * 
+	 * @param file
+	 *            the file to write to.
+	 * @param vaddr
+	 *            the first byte of virtual memory to read.
+	 * @param length
+	 *            the number of bytes to transfer.
+	 * @return the number of bytes transferred, or -1 if the file reported an
+	 *         error before any bytes were transferred.
+	 */
+	public int writeVirtualMemoryToFile(OpenFile file, int vaddr, int length) {
+		Lib.assertTrue(length >= 0);
+
+		byte[] memory = Machine.processor().getMemory();
+
+		int total = 0;
+		while (total < length) {
+			int paddr = translateForTransfer(vaddr + total, false);
+			if (paddr == -1)
+				break;
+
+			int amount = Math.min(pageSize - Processor.offsetFromAddress(paddr),
+					length - total);
+			int written = file.write(memory, paddr, amount);
+			releaseTransfer(paddr);
+			if (written == -1)
+				return (total > 0) ? total : -1;
+
+			total += written;
+			if (written < amount)
+				break;
+		}
+		return total;
+	}
+
+	/**
+	 * Translate a virtual address for a kernel transfer to or from this
+	 * process's memory, and mark the page used (and dirty, if
+	 * <i>writing</i>). The returned physical address is valid up to the end of
+	 * its page, until it is passed to <tt>releaseTransfer()</tt>.
+	 * 
+	 * @param vaddr
+	 *            the virtual address to translate.
+	 * @param writing
+	 *            <tt>true</tt> if the kernel is about to write to the page.
+	 * @return the physical address, or -1 if the page is not mapped, or is
+	 *         read-only and <i>writing</i> is set.
+	 */
+	protected int translateForTransfer(int vaddr, boolean writing) {
+		if (vaddr < 0)
+			return -1;
+
+		int vpn = Processor.pageFromAddress(vaddr);
+		if (vpn >= pageTable.length)
+			return -1;
+
+		TranslationEntry entry = pageTable[vpn];
+		if (entry == null || !entry.valid || (writing && entry.readOnly))
+			return -1;
+
+		entry.used = true;
+		if (writing) {
+			entry.dirty = true;
+			Machine.processor().invalidatePage(entry.ppn);
+		}
+
+		return Processor.makeAddress(entry.ppn,
+				Processor.offsetFromAddress(vaddr));
+	}
+
+	/**
+	 * Called when the kernel has finished transferring data to or from a
+	 * physical address returned by <tt>translateForTransfer()</tt>.
+	 * 
+	 * @param paddr
+	 *            the physical address that was being transferred.
+	 */
+	protected void releaseTransfer(int paddr) {
+	}
+
 	/**
 	 * Load the executable with the specified name into this process, and
 	 * prepare to pass it the specified arguments. Opens the executable, reads
@@ -264,6 +378,7 @@ public class UserProcess {
 			Lib.debug(dbgProcess, "\topen failed");
 			return false;
 		}
+		executableName = name;
 
 		try {
 			coff = new Coff(executable);
@@ -343,10 +458,15 @@ public class UserProcess {
 			Lib.debug(dbgProcess, "\tinsufficient physical memory");
 			return false;
 		}
+		int[] ppns = UserKernel.getMemory().allocate(numPages);
+		if (ppns == null) {
+			coff.close();
+			Lib.debug(dbgProcess, "\tinsufficient free physical memory");
+			return false;
+		}
 		pageTable = new TranslationEntry[numPages];
 		int index = 0;
 		// load sections
-		UserKernel.memoryLock.acquire();
 		for (int s = 0; s < coff.getNumSections(); s++) {
 			CoffSection section = coff.getSection(s);
 
@@ -355,7 +475,7 @@ public class UserProcess {
 
 			for (int i = 0; i < section.getLength(); i++) {
 				int vpn = section.getFirstVPN() + i;
-				int ppn = UserKernel.getMemory().pop();
+				int ppn = ppns[index];
 				TranslationEntry entry = new TranslationEntry(vpn, ppn, true,
 						section.isReadOnly(), true, false);
 				pageTable[index] = entry;
@@ -364,12 +484,11 @@ public class UserProcess {
 			}
 		}
 		for (int k = index; k < pageTable.length; k++) {
-			TranslationEntry e = new TranslationEntry(k,
-					UserKernel.memory.pop(), true, false, false, false);
+			TranslationEntry e = new TranslationEntry(k, ppns[k], true, false,
+					false, false);
 
 			pageTable[k] = e;
 		}
-		UserKernel.memoryLock.release();
 		return true;
 	}
 
@@ -377,11 +496,10 @@ public class UserProcess {
 	 * Release any resources allocated by <tt>loadSections()</tt>.
 	 */
 	protected void unloadSections() {
-		UserKernel.memoryLock.acquire();
-		for (TranslationEntry e : pageTable) {
-			UserKernel.memory.add(e.ppn);
-		}
-		UserKernel.memoryLock.release();
+		int[] ppns = new int[pageTable.length];
+		for (int i = 0; i < pageTable.length; i++)
+			ppns[i] = pageTable[i].ppn;
+		UserKernel.getMemory().free(ppns);
 	}
 
 	/**
@@ -413,12 +531,12 @@ public class UserProcess {
 	private int handleHalt() {
 		if (processID == 0) { // part1: so, the halt() call can only be invoked
 								// by the "root" process
-			Machine.halt();
+			Kernel.kernel.terminate();
 		} else {
 			return -1; // part1: When a system call indicates an error condition
 						// to the user, it should return -1
 		}
-		Lib.assertNotReached("Machine.halt() did not halt machine!");
+		Lib.assertNotReached("Kernel.terminate() did not halt machine!");
 		return 0;
 	}
 
@@ -450,26 +568,18 @@ public class UserProcess {
 
 	private int handleRead(int fileNum, int bufferAddress, int length) { // part1:																// syscall
 		if (length < 0) return -1;
-		if (fileDescriptors.get(fileNum) != null) {
-			byte[] dataToWrite = new byte[length];
-			int readAmount = fileDescriptors.get(fileNum).read(dataToWrite, 0,
-					length);
-			if (readAmount == -1) {
-				return -1;
-			}
-			return this.writeVirtualMemory(bufferAddress, dataToWrite, 0, readAmount);  //fixed a bug
+		OpenFile file = fileDescriptors.get(fileNum);
+		if (file != null) {
+			return readFileToVirtualMemory(file, bufferAddress, length);
 		}
 		return -1;
 	}
 
 	private int handleWrite(int fileNum, int bufferAddress, int length) { // part1:
 		if (length < 0) return -1;
-		if (fileDescriptors.get(fileNum) != null) {
-			byte[] dataToWrite = new byte[length];
-			int readAmount = readVirtualMemory(bufferAddress, dataToWrite);
-			int writeAmount = fileDescriptors.get(fileNum).write(dataToWrite,
-					0, readAmount);
-			return writeAmount;
+		OpenFile file = fileDescriptors.get(fileNum);
+		if (file != null) {
+			return writeVirtualMemoryToFile(file, bufferAddress, length);
 		}
 		return -1;
 	}
@@ -656,12 +766,17 @@ public class UserProcess {
 			args[i] = readVirtualMemoryString(ptr, 256);
 		}
 
-		UserProcess child = new UserProcess();
+		UserProcess child = newUserProcess();
 		child.parent = this;
 		children.put(child.processID, child);
 
-
-		child.execute(fileName, args); // execute file with processed argv
+		if (!child.execute(fileName, args)) { // execute file with processed argv
+			children.remove(child.processID); // executable could not be loaded
+			staticLock.acquire();
+			numProcesses--; // the child will never exit
+			staticLock.release();
+			return -1;
+		}
 
 		return child.processID;
 	}
@@ -741,6 +856,8 @@ public class UserProcess {
 
 	/** The program being run by this process. */
 	protected Coff coff;
+	/** The name of the file containing the program being run. */
+	protected String executableName;
 
 	/** This process's page table. */
 	protected TranslationEntry[] pageTable;
@@ -756,7 +873,7 @@ public class UserProcess {
 	private static final int pageSize = Processor.pageSize;
 	private static final char dbgProcess = 'a';
 
-	private static Lock staticLock = new Lock(); // lock for static variables
+	private static Lock staticLock = new Lock("UserProcess.staticLock"); // lock for static variables
 
 	public int returnValue;
 	private static int nextProcessID = 0; // global variable, gives next process ID
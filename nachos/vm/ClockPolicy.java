@@ -0,0 +1,42 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+/**
+ * The clock replacement policy. A hand sweeps over the frames in physical
+ * order. A frame whose page was used since the hand last passed has its
+ * <tt>used</tt> bit cleared and is skipped, and the first frame found unused
+ * is the victim.
+ */
+public class ClockPolicy extends ReplacementPolicy {
+    /**
+     * Allocate a new clock policy.
+     */
+    public ClockPolicy() {
+    }
+
+    public int findVictim() {
+	int numPhysPages = table.getNumPhysPages();
+
+	// two sweeps suffice: the first clears every used bit it passes
+	for (int i = 0; i < 2*numPhysPages; i++) {
+	    int ppn = hand;
+	    hand = (hand + 1) % numPhysPages;
+
+	    if (!table.isReplaceable(ppn))
+		continue;
+
+	    if (!table.isUsed(ppn))
+		return ppn;
+
+	    table.clearUsed(ppn);
+	}
+
+	return -1;
+    }
+
+    private int hand = 0;
+}
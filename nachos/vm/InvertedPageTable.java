@@ -0,0 +1,232 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+/**
+ * A global inverted page table, indexed by physical page number. Each entry
+ * records which virtual pages currently map the frame, how many kernel
+ * transfers have the frame pinned, and, for a frame in the shared page cache,
+ * the key it is cached under. A private frame is mapped by exactly one virtual
+ * page. A shared frame may be mapped by any number of pages, including none,
+ * in which case it stays occupied only because it is cached.
+ *
+ * <p>
+ * A pinned frame must not be chosen for replacement.
+ */
+public class InvertedPageTable {
+    /**
+     * Allocate a new inverted page table with every frame empty.
+     *
+     * @param	numPhysPages	the number of physical pages to track.
+     */
+    public InvertedPageTable(int numPhysPages) {
+	mappings = new Mapping[numPhysPages];
+	keys = new String[numPhysPages];
+	pinCounts = new int[numPhysPages];
+    }
+
+    /**
+     * Return the number of physical pages in this table.
+     *
+     * @return	the number of physical pages.
+     */
+    public int getNumPhysPages() {
+	return mappings.length;
+    }
+
+    /**
+     * Record that the specified virtual page now maps a frame.
+     *
+     * @param	ppn	the frame.
+     * @param	process	the process that owns the virtual page.
+     * @param	vpn	the virtual page number.
+     */
+    public void insert(int ppn, VMProcess process, int vpn) {
+	Lib.assertTrue(process != null);
+
+	mappings[ppn] = new Mapping(process, vpn, mappings[ppn]);
+    }
+
+    /**
+     * Record that the specified virtual page no longer maps a frame.
+     *
+     * @param	ppn	the frame.
+     * @param	process	the process that owns the virtual page.
+     * @param	vpn	the virtual page number.
+     */
+    public void remove(int ppn, VMProcess process, int vpn) {
+	Mapping prev = null;
+	for (Mapping m = mappings[ppn]; m != null; prev = m, m = m.next) {
+	    if (m.process == process && m.vpn == vpn) {
+		if (prev == null)
+		    mappings[ppn] = m.next;
+		else
+		    prev.next = m.next;
+		return;
+	    }
+	}
+
+	Lib.assertNotReached("vpn " + vpn + " does not map ppn " + ppn);
+    }
+
+    /**
+     * Empty a frame, forgetting every mapping of it and its cache key.
+     *
+     * @param	ppn	the frame.
+     * @return	the mappings the frame had, linked through <tt>next</tt>.
+     */
+    public Mapping clear(int ppn) {
+	Mapping first = mappings[ppn];
+
+	mappings[ppn] = null;
+	keys[ppn] = null;
+
+	return first;
+    }
+
+    /**
+     * Return the first of the mappings of a frame. The rest are linked
+     * through <tt>next</tt>.
+     *
+     * @param	ppn	the frame.
+     * @return	the first mapping, or <tt>null</tt> if the frame is not mapped.
+     */
+    public Mapping getMappings(int ppn) {
+	return mappings[ppn];
+    }
+
+    /**
+     * Test whether any virtual page maps a frame.
+     *
+     * @param	ppn	the frame.
+     * @return	<tt>true</tt> if the frame is mapped.
+     */
+    public boolean isMapped(int ppn) {
+	return mappings[ppn] != null;
+    }
+
+    /**
+     * Test whether a frame holds a page, either because it is mapped or
+     * because it is in the shared page cache.
+     *
+     * @param	ppn	the frame.
+     * @return	<tt>true</tt> if the frame is occupied.
+     */
+    public boolean isOccupied(int ppn) {
+	return mappings[ppn] != null || keys[ppn] != null;
+    }
+
+    /**
+     * Record the shared page cache key of a frame.
+     *
+     * @param	ppn	the frame.
+     * @param	key	the key, or <tt>null</tt> if the frame is private.
+     */
+    public void setKey(int ppn, String key) {
+	keys[ppn] = key;
+    }
+
+    /**
+     * Return the shared page cache key of a frame.
+     *
+     * @param	ppn	the frame.
+     * @return	the key, or <tt>null</tt> if the frame is private.
+     */
+    public String getKey(int ppn) {
+	return keys[ppn];
+    }
+
+    /**
+     * Test whether any page mapping a frame has been used since its
+     * <tt>used</tt> bit was last cleared. The bits are current only once the
+     * TLB has been written back with <tt>VMKernel.flushTLB()</tt>.
+     *
+     * @param	ppn	the frame.
+     * @return	<tt>true</tt> if the frame was used.
+     */
+    public boolean isUsed(int ppn) {
+	for (Mapping m = mappings[ppn]; m != null; m = m.next) {
+	    if (m.process.getPageTableEntry(m.vpn).used)
+		return true;
+	}
+
+	return false;
+    }
+
+    /**
+     * Clear the <tt>used</tt> bit of every page mapping a frame.
+     *
+     * @param	ppn	the frame.
+     */
+    public void clearUsed(int ppn) {
+	for (Mapping m = mappings[ppn]; m != null; m = m.next)
+	    m.process.getPageTableEntry(m.vpn).used = false;
+    }
+
+    /**
+     * Pin a frame, so that it will not be replaced.
+     *
+     * @param	ppn	the frame.
+     */
+    public void pin(int ppn) {
+	pinCounts[ppn]++;
+    }
+
+    /**
+     * Undo one call to <tt>pin()</tt>.
+     *
+     * @param	ppn	the frame.
+     * @return	<tt>true</tt> if the frame is no longer pinned.
+     */
+    public boolean unpin(int ppn) {
+	Lib.assertTrue(pinCounts[ppn] > 0);
+
+	return --pinCounts[ppn] == 0;
+    }
+
+    /**
+     * Test whether a frame is pinned.
+     *
+     * @param	ppn	the frame.
+     * @return	<tt>true</tt> if the frame is pinned.
+     */
+    public boolean isPinned(int ppn) {
+	return pinCounts[ppn] > 0;
+    }
+
+    /**
+     * Test whether a frame may be chosen for replacement. A frame is a
+     * candidate if it is occupied and not pinned.
+     *
+     * @param	ppn	the frame.
+     * @return	<tt>true</tt> if the frame may be replaced.
+     */
+    public boolean isReplaceable(int ppn) {
+	return isOccupied(ppn) && pinCounts[ppn] == 0;
+    }
+
+    /**
+     * A virtual page mapping a frame.
+     */
+    public static class Mapping {
+	Mapping(VMProcess process, int vpn, Mapping next) {
+	    this.process = process;
+	    this.vpn = vpn;
+	    this.next = next;
+	}
+
+	/** The process that owns the virtual page. */
+	public final VMProcess process;
+	/** The virtual page number. */
+	public final int vpn;
+	/** The next mapping of the same frame, or <tt>null</tt>. */
+	Mapping next;
+    }
+
+    private Mapping[] mappings;
+    private String[] keys;
+    private int[] pinCounts;
+}
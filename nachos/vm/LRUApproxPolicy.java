@@ -0,0 +1,63 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+/**
+ * A replacement policy that approximates least-recently-used with aging. Each
+ * frame has an 8-bit age register. Whenever a victim is needed, every
+ * register is shifted right, the frame's <tt>used</tt> bit is shifted in at
+ * the top, and the bit is cleared. The frame with the smallest register has
+ * gone unused the longest, and is the victim.
+ */
+public class LRUApproxPolicy extends ReplacementPolicy {
+    /**
+     * Allocate a new LRU-approximation policy.
+     */
+    public LRUApproxPolicy() {
+    }
+
+    public void initialize(InvertedPageTable table) {
+	super.initialize(table);
+
+	ages = new int[table.getNumPhysPages()];
+    }
+
+    public void pageLoaded(int ppn) {
+	// a newly loaded page was just referenced
+	ages[ppn] = 0x80;
+    }
+
+    public int findVictim() {
+	int numPhysPages = table.getNumPhysPages();
+
+	for (int ppn = 0; ppn < numPhysPages; ppn++) {
+	    if (!table.isOccupied(ppn))
+		continue;
+
+	    ages[ppn] = (ages[ppn] >>> 1) | (table.isUsed(ppn) ? 0x80 : 0);
+	    table.clearUsed(ppn);
+	}
+
+	// start after the last victim, so that ties do not always hit the
+	// same frame
+	int victim = -1;
+	for (int i = 1; i <= numPhysPages; i++) {
+	    int ppn = (lastVictim + i) % numPhysPages;
+
+	    if (table.isReplaceable(ppn)
+		&& (victim == -1 || ages[ppn] < ages[victim]))
+		victim = ppn;
+	}
+
+	if (victim != -1)
+	    lastVictim = victim;
+
+	return victim;
+    }
+
+    private int[] ages;
+    private int lastVictim = 0;
+}
@@ -0,0 +1,69 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+/**
+ * Chooses which frame to evict when a page fault finds no free physical
+ * memory. The policy class is specified by the <tt>nachos.conf</tt> key
+ * <tt>VMKernel.replacementPolicy</tt>.
+ *
+ * <p>
+ * Policies decide using <tt>isUsed()</tt> of the inverted page table, which
+ * reflects the <tt>used</tt> bits of the pages mapping each frame. A policy may
+ * clear those bits; it must never set them. All methods are called with
+ * <tt>VMKernel</tt>'s paging lock held, and the TLB is written back before
+ * every call to <tt>findVictim()</tt>.
+ *
+ * @see	nachos.vm.ClockPolicy
+ * @see	nachos.vm.SecondChancePolicy
+ * @see	nachos.vm.LRUApproxPolicy
+ */
+public abstract class ReplacementPolicy {
+    /**
+     * Allocate a new replacement policy.
+     */
+    public ReplacementPolicy() {
+    }
+
+    /**
+     * Attach this policy to the inverted page table it chooses from. Called
+     * once, before any other method.
+     *
+     * @param	table	the inverted page table.
+     */
+    public void initialize(InvertedPageTable table) {
+	this.table = table;
+    }
+
+    /**
+     * Called after a page has been loaded into a frame. Mapping an already
+     * loaded shared frame into another process does not count.
+     *
+     * @param	ppn	the frame that was filled.
+     */
+    public void pageLoaded(int ppn) {
+    }
+
+    /**
+     * Called after a frame has been emptied, either because its page was
+     * evicted or because the last process using it exited.
+     *
+     * @param	ppn	the frame that was emptied.
+     */
+    public void pageFreed(int ppn) {
+    }
+
+    /**
+     * Choose a frame to evict. The frame must satisfy
+     * <tt>table.isReplaceable()</tt>.
+     *
+     * @return	the frame to evict, or -1 if every mapped frame is pinned.
+     */
+    public abstract int findVictim();
+
+    /** The inverted page table this policy chooses from. */
+    protected InvertedPageTable table;
+}
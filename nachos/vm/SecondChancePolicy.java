@@ -0,0 +1,50 @@
+package nachos.vm;
+
+import java.util.LinkedList;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+/**
+ * The second-chance replacement policy. Frames are kept in the order their
+ * pages were loaded. The oldest frame is the victim unless its page was used
+ * since it was last examined, in which case its <tt>used</tt> bit is cleared
+ * and it moves to the back of the queue as if newly loaded.
+ */
+public class SecondChancePolicy extends ReplacementPolicy {
+    /**
+     * Allocate a new second-chance policy.
+     */
+    public SecondChancePolicy() {
+    }
+
+    public void pageLoaded(int ppn) {
+	queue.add(ppn);
+    }
+
+    public void pageFreed(int ppn) {
+	queue.remove(Integer.valueOf(ppn));
+    }
+
+    public int findVictim() {
+	// two passes suffice: the first clears every used bit it passes
+	for (int i = 0; i < 2*queue.size(); i++) {
+	    int ppn = queue.removeFirst();
+	    queue.add(ppn);
+
+	    if (!table.isReplaceable(ppn))
+		continue;
+
+	    if (!table.isUsed(ppn))
+		return ppn;
+
+	    table.clearUsed(ppn);
+	}
+
+	return -1;
+    }
+
+    private LinkedList<Integer> queue = new LinkedList<Integer>();
+}
@@ -0,0 +1,147 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+/**
+ * A backing store for evicted pages, kept in a single file on the kernel's
+ * file system. The file is divided into page-sized slots, and slots are handed
+ * out in aligned clusters of <tt>clusterSize</tt>, one cluster per group of
+ * adjacent virtual pages. Neighbouring pages therefore occupy neighbouring
+ * slots, so a run of them can be written back or read ahead with a single file
+ * operation. A bitmap records which slots are in use.
+ *
+ * <p>
+ * Every page transferred is counted as a disk sector in the machine
+ * statistics.
+ */
+public class SwapFile {
+    /**
+     * Create a new, empty swap file. Any existing file with the same name is
+     * truncated.
+     *
+     * @param	name	the name of the swap file.
+     */
+    public SwapFile(String name) {
+	this.name = name;
+
+	file = ThreadedKernel.fileSystem.open(name, true);
+	Lib.assertTrue(file != null, "unable to open swap file " + name);
+    }
+
+    /**
+     * Allocate a cluster of <tt>clusterSize</tt> contiguous slots.
+     *
+     * @return	the first slot of the cluster.
+     */
+    public int allocateCluster() {
+	int slot = 0;
+	while (slot < usedSlots.length*64 && !isClusterFree(slot))
+	    slot += clusterSize;
+
+	if (slot == usedSlots.length*64) {
+	    long[] grown = new long[usedSlots.length*2];
+	    System.arraycopy(usedSlots, 0, grown, 0, usedSlots.length);
+	    usedSlots = grown;
+	}
+
+	usedSlots[slot/64] |= clusterMask << (slot%64);
+	return slot;
+    }
+
+    /**
+     * Release a cluster allocated by <tt>allocateCluster()</tt>.
+     *
+     * @param	slot	the first slot of the cluster.
+     */
+    public void freeCluster(int slot) {
+	Lib.assertTrue(slot >= 0 && slot%clusterSize == 0
+		       && slot < usedSlots.length*64);
+	Lib.assertTrue((usedSlots[slot/64] & (clusterMask << (slot%64)))
+		       == clusterMask << (slot%64));
+
+	usedSlots[slot/64] &= ~(clusterMask << (slot%64));
+    }
+
+    /**
+     * Copy frames of physical memory into consecutive slots, using a single
+     * write to the file. The frames are copied out before the write begins, so
+     * they may change while the write is in progress.
+     *
+     * @param	slot	the first slot to write.
+     * @param	ppns	the frames to copy, in slot order.
+     */
+    public void write(int slot, int[] ppns) {
+	byte[] memory = Machine.processor().getMemory();
+	byte[] buf = buffer(ppns.length);
+
+	for (int i = 0; i < ppns.length; i++)
+	    System.arraycopy(memory, ppns[i]*pageSize, buf, i*pageSize, pageSize);
+
+	int length = ppns.length*pageSize;
+	Lib.assertTrue(file.write(slot*pageSize, buf, 0, length) == length,
+		       "swap write failed");
+
+	Machine.reportDiskIO(0, ppns.length);
+    }
+
+    /**
+     * Copy consecutive slots into frames of physical memory, using a single
+     * read from the file.
+     *
+     * @param	slot	the first slot to read.
+     * @param	ppns	the frames to fill, in slot order.
+     */
+    public void read(int slot, int[] ppns) {
+	byte[] memory = Machine.processor().getMemory();
+	byte[] buf = buffer(ppns.length);
+
+	int length = ppns.length*pageSize;
+	Lib.assertTrue(file.read(slot*pageSize, buf, 0, length) == length,
+		       "swap read failed");
+
+	for (int i = 0; i < ppns.length; i++)
+	    System.arraycopy(buf, i*pageSize, memory, ppns[i]*pageSize, pageSize);
+
+	Machine.reportDiskIO(ppns.length, 0);
+    }
+
+    /**
+     * Close and delete the swap file.
+     */
+    public void close() {
+	file.close();
+	ThreadedKernel.fileSystem.remove(name);
+    }
+
+    private boolean isClusterFree(int slot) {
+	return (usedSlots[slot/64] & (clusterMask << (slot%64))) == 0;
+    }
+
+    private byte[] buffer(int numPages) {
+	Lib.assertTrue(numPages > 0 && numPages <= clusterSize);
+
+	if (transferBuffer == null)
+	    transferBuffer = new byte[clusterSize*pageSize];
+
+	return transferBuffer;
+    }
+
+    /**
+     * The number of slots in a cluster, which is also the largest number of
+     * pages moved by one transfer. Must divide 64.
+     */
+    public static final int clusterSize = 8;
+
+    private String name;
+    private OpenFile file;
+    /** One bit per slot, set if the slot belongs to an allocated cluster. */
+    private long[] usedSlots = new long[1];
+    /** Staging area for transfers; callers hold the paging lock. */
+    private byte[] transferBuffer = null;
+
+    private static final long clusterMask = (1L << clusterSize) - 1;
+    private static final int pageSize = Processor.pageSize;
+}
@@ -1,5 +1,7 @@
 package nachos.vm;
 
+import java.util.HashMap;
+
 import nachos.machine.*;
 import nachos.threads.*;
 import nachos.userprog.*;
@@ -21,11 +23,24 @@ public class VMKernel extends UserKernel {
      */
     public void initialize(String[] args) {
 	super.initialize(args);
+
+	invertedPageTable =
+	    new InvertedPageTable(Machine.processor().getNumPhysPages());
+
+	String policyName = Config.getString("VMKernel.replacementPolicy",
+					     "nachos.vm.ClockPolicy");
+	replacementPolicy = (ReplacementPolicy) Lib.constructObject(policyName);
+	replacementPolicy.initialize(invertedPageTable);
+
+	swapFile = new SwapFile(Config.getString("VMKernel.swapFile", "swap"));
+
+	pagingLock = new Lock("VMKernel.pagingLock");
+	unpinned = new Condition(pagingLock, "VMKernel.unpinned");
     }
 
     /**
      * Test this kernel.
-     */	
+     */
     public void selfTest() {
 	super.selfTest();
     }
@@ -36,14 +51,194 @@ public class VMKernel extends UserKernel {
     public void run() {
 	super.run();
     }
-    
+
     /**
      * Terminate this kernel. Never returns.
      */
     public void terminate() {
+	swapFile.close();
+
 	super.terminate();
     }
 
+    /**
+     * Obtain a frame for a page that is about to be loaded, evicting another
+     * page if no frame is free. May block, either on the write-back of a dirty
+     * victim or until a pinned frame is released. The caller must hold
+     * <tt>pagingLock</tt>.
+     *
+     * @return	the frame, which is not yet in the inverted page table.
+     */
+    static int allocateFrame() {
+	Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+	while (true) {
+	    int ppn = getMemory().allocate();
+	    if (ppn != -1)
+		return ppn;
+
+	    flushTLB();
+
+	    int victim = replacementPolicy.findVictim();
+	    if (victim == -1) {
+		Lib.debug(dbgVM, "all frames pinned, waiting");
+		unpinned.sleep();
+		continue;
+	    }
+
+	    Lib.debug(dbgVM, "evicting ppn " + victim);
+
+	    String key = invertedPageTable.getKey(victim);
+	    if (key != null)
+		pageCache.remove(key);
+
+	    InvertedPageTable.Mapping mappings = invertedPageTable.clear(victim);
+	    replacementPolicy.pageFreed(victim);
+
+	    for (InvertedPageTable.Mapping m = mappings; m != null; m = m.next)
+		m.process.pageOut(m.vpn);
+
+	    return victim;
+	}
+    }
+
+    /**
+     * Record that a virtual page no longer maps a frame, and return the frame
+     * to the free pool if nothing else holds it. A shared frame stays in the
+     * page cache after its last mapping goes away, until it is evicted. The
+     * caller must hold <tt>pagingLock</tt>.
+     *
+     * @param	ppn	the frame.
+     * @param	process	the process that owns the virtual page.
+     * @param	vpn	the virtual page number.
+     */
+    static void unmapFrame(int ppn, VMProcess process, int vpn) {
+	Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+	invertedPageTable.remove(ppn, process, vpn);
+
+	if (!invertedPageTable.isOccupied(ppn)) {
+	    replacementPolicy.pageFreed(ppn);
+	    getMemory().free(ppn);
+	}
+    }
+
+    /**
+     * Look up a page in the shared page cache. The caller must hold
+     * <tt>pagingLock</tt>.
+     *
+     * @param	key	the page's key.
+     * @return	the frame holding the page, or -1 if it is not cached.
+     */
+    static int findSharedPage(String key) {
+	Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+	Integer ppn = pageCache.get(key);
+	return (ppn == null) ? -1 : ppn.intValue();
+    }
+
+    /**
+     * Add a freshly loaded frame to the shared page cache. The caller must
+     * hold <tt>pagingLock</tt>.
+     *
+     * @param	key	the page's key.
+     * @param	ppn	the frame holding the page.
+     */
+    static void addSharedPage(String key, int ppn) {
+	Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+	Lib.assertTrue(!pageCache.containsKey(key));
+
+	pageCache.put(key, ppn);
+	invertedPageTable.setKey(ppn, key);
+    }
+
+    /**
+     * Load a translation into the TLB. Replaces an existing entry for the same
+     * virtual page if there is one, otherwise an invalid entry, and otherwise
+     * the entries in turn. The <tt>used</tt> and <tt>dirty</tt> bits of a
+     * replaced entry are written back first.
+     *
+     * @param	entry	the translation to load.
+     */
+    static void fillTLB(TranslationEntry entry) {
+	Processor processor = Machine.processor();
+	int tlbSize = processor.getTLBSize();
+
+	int slot = -1;
+	for (int i = 0; i < tlbSize; i++) {
+	    TranslationEntry tlbEntry = processor.readTLBEntry(i);
+	    if (tlbEntry.valid && tlbEntry.vpn == entry.vpn) {
+		writeBack(tlbEntry);
+		slot = i;
+		break;
+	    }
+	    if (!tlbEntry.valid && slot == -1)
+		slot = i;
+	}
+
+	if (slot == -1) {
+	    slot = nextTLBSlot;
+	    nextTLBSlot = (nextTLBSlot + 1) % tlbSize;
+
+	    writeBack(processor.readTLBEntry(slot));
+	}
+
+	processor.writeTLBEntry(slot, entry);
+    }
+
+    /**
+     * Write the <tt>used</tt> and <tt>dirty</tt> bits of every TLB entry back
+     * to the page tables, and invalidate the whole TLB. Called on every
+     * context switch, and before choosing a victim frame.
+     */
+    static void flushTLB() {
+	Processor processor = Machine.processor();
+
+	for (int i = 0; i < processor.getTLBSize(); i++) {
+	    TranslationEntry entry = processor.readTLBEntry(i);
+	    if (entry.valid) {
+		writeBack(entry);
+
+		entry.valid = false;
+		processor.writeTLBEntry(i, entry);
+	    }
+	}
+    }
+
+    private static void writeBack(TranslationEntry tlbEntry) {
+	// the TLB only ever holds translations of the current process
+	VMProcess process = (VMProcess) currentProcess();
+	if (!tlbEntry.valid || process == null)
+	    return;
+
+	TranslationEntry entry = process.getPageTableEntry(tlbEntry.vpn);
+	if (entry.valid && entry.ppn == tlbEntry.ppn) {
+	    entry.used |= tlbEntry.used;
+	    entry.dirty |= tlbEntry.dirty;
+	}
+    }
+
+    /** The global inverted page table. */
+    static InvertedPageTable invertedPageTable;
+    /** The policy that chooses which frame to evict. */
+    static ReplacementPolicy replacementPolicy;
+    /**
+     * The shared page cache, mapping the key of each shared page that is in
+     * memory to its frame.
+     */
+    static HashMap<String, Integer> pageCache = new HashMap<String, Integer>();
+    /** The backing store for evicted dirty pages. */
+    static SwapFile swapFile;
+    /**
+     * Guards the inverted page table, the replacement policy, the swap file,
+     * and every process's resident pages.
+     */
+    static Lock pagingLock;
+    /** Signalled whenever a frame becomes unpinned. */
+    static Condition unpinned;
+
+    private static int nextTLBSlot = 0;
+
     // dummy variables to make javac smarter
     private static VMProcess dummy1 = null;
 
@@ -22,6 +22,8 @@ public class VMProcess extends UserProcess {
      */
     public void saveState() {
 	super.saveState();
+
+	VMKernel.flushTLB();
     }
 
     /**
@@ -29,7 +31,7 @@ public class VMProcess extends UserProcess {
      * <tt>UThread.restoreState()</tt>.
      */
     public void restoreState() {
-	super.restoreState();
+	// the TLB was flushed when the previous process was switched out
     }
 
     /**
@@ -39,15 +41,62 @@ public class VMProcess extends UserProcess {
      * @return	<tt>true</tt> if successful.
      */
     protected boolean loadSections() {
-	return super.loadSections();
+	pageTable = new TranslationEntry[numPages];
+	sections = new CoffSection[numPages];
+	sectionPages = new int[numPages];
+	inSwap = new boolean[numPages];
+	shared = new boolean[numPages];
+	swapClusters = new int[(numPages + clusterSize - 1) / clusterSize];
+
+	for (int vpn = 0; vpn < numPages; vpn++)
+	    pageTable[vpn] = new TranslationEntry(vpn, -1, false, false,
+						  false, false);
+	for (int i = 0; i < swapClusters.length; i++)
+	    swapClusters[i] = -1;
+
+	for (int s = 0; s < coff.getNumSections(); s++) {
+	    CoffSection section = coff.getSection(s);
+
+	    Lib.debug(dbgProcess, "\tinitializing " + section.getName()
+		      + " section (" + section.getLength() + " pages)");
+
+	    for (int i = 0; i < section.getLength(); i++) {
+		int vpn = section.getFirstVPN() + i;
+
+		pageTable[vpn].readOnly = section.isReadOnly();
+		sections[vpn] = section;
+		sectionPages[vpn] = i;
+	    }
+	}
+
+	return true;
     }
 
     /**
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
     protected void unloadSections() {
-	super.unloadSections();
-    }    
+	VMKernel.pagingLock.acquire();
+
+	VMKernel.flushTLB();
+
+	for (int vpn = 0; vpn < numPages; vpn++) {
+	    if (pageTable[vpn].valid) {
+		pageTable[vpn].valid = false;
+		VMKernel.unmapFrame(pageTable[vpn].ppn, this, vpn);
+	    }
+	}
+	for (int i = 0; i < swapClusters.length; i++) {
+	    if (swapClusters[i] != -1) {
+		VMKernel.swapFile.freeCluster(swapClusters[i]);
+		swapClusters[i] = -1;
+	    }
+	}
+
+	VMKernel.pagingLock.release();
+
+	coff.close();
+    }
 
     /**
      * Handle a user exception. Called by
@@ -61,13 +110,358 @@ public class VMProcess extends UserProcess {
 	Processor processor = Machine.processor();
 
 	switch (cause) {
+	case Processor.exceptionTLBMiss:
+	case Processor.exceptionPageFault:
+	    if (!handleTLBMiss(processor.readRegister(Processor.regBadVAddr)))
+		super.handleException(cause);
+	    break;
+
+	case Processor.exceptionReadOnly:
+	    if (!handleReadOnly(processor.readRegister(Processor.regBadVAddr)))
+		super.handleException(cause);
+	    break;
+
 	default:
 	    super.handleException(cause);
 	    break;
 	}
     }
-	
+
+    /**
+     * Load the TLB with the translation for a virtual address, first paging
+     * the page in if it is not resident. Resident pages are only changed by a
+     * thread holding the paging lock, which invalidates an entry before it
+     * blocks, so the common case of a TLB miss on a resident page does not
+     * need the lock.
+     *
+     * @param	vaddr	the virtual address that missed.
+     * @return	<tt>true</tt> if the TLB now maps <i>vaddr</i>, or
+     *		<tt>false</tt> if <i>vaddr</i> lies outside this process.
+     */
+    private boolean handleTLBMiss(int vaddr) {
+	int vpn = Processor.pageFromAddress(vaddr);
+	if (vaddr < 0 || vpn >= numPages)
+	    return false;
+
+	TranslationEntry entry = pageTable[vpn];
+
+	if (!entry.valid) {
+	    VMKernel.pagingLock.acquire();
+	    if (!entry.valid)
+		pageIn(vpn);
+	    VMKernel.pagingLock.release();
+	}
+
+	VMKernel.fillTLB(entry);
+	return true;
+    }
+
+    /**
+     * Handle a write to a page mapped read-only. If the page is a shared
+     * copy-on-write page, give this process its own copy.
+     *
+     * @param	vaddr	the virtual address that was written.
+     * @return	<tt>true</tt> if the write may be retried, or <tt>false</tt>
+     *		if the page really is read-only.
+     */
+    private boolean handleReadOnly(int vaddr) {
+	int vpn = Processor.pageFromAddress(vaddr);
+	if (vaddr < 0 || vpn >= numPages || !isWritable(vpn))
+	    return false;
+
+	VMKernel.pagingLock.acquire();
+	if (pageTable[vpn].valid && shared[vpn])
+	    copyOnWrite(vpn);
+	VMKernel.pagingLock.release();
+
+	return true;
+    }
+
+    protected int translateForTransfer(int vaddr, boolean writing) {
+	int vpn = Processor.pageFromAddress(vaddr);
+	if (vaddr < 0 || vpn >= numPages)
+	    return -1;
+
+	if (writing && !isWritable(vpn))
+	    return -1;
+
+	TranslationEntry entry = pageTable[vpn];
+
+	VMKernel.pagingLock.acquire();
+	if (!entry.valid)
+	    pageIn(vpn);
+	if (writing && shared[vpn])
+	    copyOnWrite(vpn);
+	VMKernel.invertedPageTable.pin(entry.ppn);
+	VMKernel.pagingLock.release();
+
+	entry.used = true;
+	if (writing) {
+	    entry.dirty = true;
+	    Machine.processor().invalidatePage(entry.ppn);
+	}
+
+	return Processor.makeAddress(entry.ppn,
+				     Processor.offsetFromAddress(vaddr));
+    }
+
+    protected void releaseTransfer(int paddr) {
+	VMKernel.pagingLock.acquire();
+	if (VMKernel.invertedPageTable.unpin(Processor.pageFromAddress(paddr)))
+	    VMKernel.unpinned.wakeAll();
+	VMKernel.pagingLock.release();
+    }
+
+    /**
+     * Return the translation entry for one of this process's virtual pages.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the translation entry.
+     */
+    TranslationEntry getPageTableEntry(int vpn) {
+	return pageTable[vpn];
+    }
+
+    /**
+     * Bring a virtual page into memory, from the swap file if it has been
+     * written back, otherwise from its COFF section, or else as a page of
+     * zeros. The caller must hold the paging lock.
+     *
+     * <p>
+     * Pages of initialized COFF sections are shared through the kernel's page
+     * cache, keyed by executable, section and page, so every process running
+     * the same program maps the same frame. Writable pages are mapped
+     * read-only and copied when first written.
+     *
+     * @param	vpn	the virtual page to load.
+     */
+    private void pageIn(int vpn) {
+	Machine.processor().reportPageFault();
+
+	if (!inSwap[vpn] && sections[vpn] != null
+	    && sections[vpn].isInitialzed()) {
+	    mapShared(vpn);
+	    return;
+	}
+
+	int ppn = VMKernel.allocateFrame();
+
+	if (inSwap[vpn]) {
+	    swapIn(vpn, ppn);
+	    return;
+	}
+
+	if (sections[vpn] != null) {
+	    Lib.debug(dbgVM, "vpn " + vpn + ": " + sections[vpn].getName()
+		      + " -> ppn " + ppn);
+	    sections[vpn].loadPage(sectionPages[vpn], ppn);
+	}
+	else {
+	    Lib.debug(dbgVM, "vpn " + vpn + ": zero-fill -> ppn " + ppn);
+	    byte[] memory = Machine.processor().getMemory();
+	    java.util.Arrays.fill(memory, ppn*pageSize, (ppn+1)*pageSize,
+				  (byte) 0);
+	}
+
+	install(vpn, ppn, true);
+    }
+
+    /**
+     * Read a page back from the swap file, together with as many of its
+     * non-resident neighbours in the same swap cluster as there are free
+     * frames for, using one read. Pages read ahead are installed unused, so
+     * they are the first to go if they turn out not to be needed.
+     *
+     * @param	vpn	the page that faulted.
+     * @param	ppn	the frame allocated for it.
+     */
+    private void swapIn(int vpn, int ppn) {
+	int first = (vpn / clusterSize) * clusterSize;
+	int last = Math.min(first + clusterSize, numPages) - 1;
+	int spare = VMKernel.getMemory().getNumFree();
+
+	int lo = vpn, hi = vpn;
+	while (spare > 0 && lo > first && canReadAhead(lo-1)) {
+	    lo--;
+	    spare--;
+	}
+	while (spare > 0 && hi < last && canReadAhead(hi+1)) {
+	    hi++;
+	    spare--;
+	}
+
+	int[] extra = VMKernel.getMemory().allocate(hi-lo);
+	if (extra == null)
+	    lo = hi = vpn;
+
+	int[] ppns = new int[hi-lo+1];
+	for (int i = lo, j = 0; i <= hi; i++)
+	    ppns[i-lo] = (i == vpn) ? ppn : extra[j++];
+
+	Lib.debug(dbgVM, "vpns " + lo + "-" + hi + ": swap slot "
+		  + swapSlot(lo) + " -> ppn " + ppn + " (faulted vpn " + vpn
+		  + ")");
+	VMKernel.swapFile.read(swapSlot(lo), ppns);
+
+	for (int i = lo; i <= hi; i++)
+	    install(i, ppns[i-lo], i == vpn);
+    }
+
+    /**
+     * Map a page of an initialized COFF section to its frame in the shared
+     * page cache, loading it into the cache first if necessary.
+     */
+    private void mapShared(int vpn) {
+	String key = executableName + "/" + sections[vpn].getName() + "/"
+	    + sectionPages[vpn];
+
+	int ppn = VMKernel.findSharedPage(key);
+	boolean loaded = (ppn == -1);
+
+	if (loaded) {
+	    ppn = VMKernel.allocateFrame();
+	    sections[vpn].loadPage(sectionPages[vpn], ppn);
+	    VMKernel.addSharedPage(key, ppn);
+	}
+
+	Lib.debug(dbgVM, "vpn " + vpn + ": shared " + key + " -> ppn " + ppn
+		  + (loaded ? "" : " (cached)"));
+
+	TranslationEntry entry = pageTable[vpn];
+	entry.ppn = ppn;
+	entry.readOnly = true;
+	entry.used = true;
+	entry.dirty = false;
+	entry.valid = true;
+	shared[vpn] = true;
+
+	VMKernel.invertedPageTable.insert(ppn, this, vpn);
+	if (loaded)
+	    VMKernel.replacementPolicy.pageLoaded(ppn);
+    }
+
+    /**
+     * Replace this process's mapping of a shared, writable page with a
+     * private copy. The caller must hold the paging lock.
+     */
+    private void copyOnWrite(int vpn) {
+	TranslationEntry entry = pageTable[vpn];
+	int sharedPPN = entry.ppn;
+
+	// the TLB may hold the read-only mapping
+	VMKernel.flushTLB();
+
+	// keep the original in memory while a frame is found for the copy
+	VMKernel.invertedPageTable.pin(sharedPPN);
+	int ppn = VMKernel.allocateFrame();
+	if (VMKernel.invertedPageTable.unpin(sharedPPN))
+	    VMKernel.unpinned.wakeAll();
+
+	Lib.debug(dbgVM, "vpn " + vpn + ": copy-on-write ppn " + sharedPPN
+		  + " -> ppn " + ppn);
+
+	byte[] memory = Machine.processor().getMemory();
+	System.arraycopy(memory, sharedPPN*pageSize, memory, ppn*pageSize,
+			 pageSize);
+
+	VMKernel.unmapFrame(sharedPPN, this, vpn);
+	install(vpn, ppn, true);
+    }
+
+    private boolean isWritable(int vpn) {
+	return sections[vpn] == null || !sections[vpn].isReadOnly();
+    }
+
+    private boolean canReadAhead(int vpn) {
+	return !pageTable[vpn].valid && inSwap[vpn];
+    }
+
+    /**
+     * Make a freshly filled frame the resident copy of a virtual page.
+     */
+    private void install(int vpn, int ppn, boolean used) {
+	Machine.processor().invalidatePage(ppn);
+
+	TranslationEntry entry = pageTable[vpn];
+	entry.ppn = ppn;
+	entry.readOnly = !isWritable(vpn);
+	entry.used = used;
+	entry.dirty = false;
+	entry.valid = true;
+	shared[vpn] = false;
+
+	VMKernel.invertedPageTable.insert(ppn, this, vpn);
+	VMKernel.replacementPolicy.pageLoaded(ppn);
+    }
+
+    /**
+     * Evict a resident page, writing it to the swap file if it is dirty. The
+     * write is clustered: any dirty, unpinned neighbours of the page in the
+     * same swap cluster are written by the same operation and become clean,
+     * while staying resident. The page's entry is invalidated before any I/O,
+     * so that a concurrent access faults and waits for the paging lock. The
+     * caller must hold the paging lock, and must already have removed the
+     * frame from the inverted page table.
+     *
+     * @param	vpn	the virtual page to evict.
+     */
+    void pageOut(int vpn) {
+	TranslationEntry entry = pageTable[vpn];
+	Lib.assertTrue(entry.valid);
+
+	entry.valid = false;
+
+	if (!entry.dirty)
+	    return;
+
+	int cluster = vpn / clusterSize;
+	if (swapClusters[cluster] == -1)
+	    swapClusters[cluster] = VMKernel.swapFile.allocateCluster();
+
+	int first = cluster * clusterSize;
+	int last = Math.min(first + clusterSize, numPages) - 1;
+
+	int lo = vpn, hi = vpn;
+	while (lo > first && canWriteBack(lo-1))
+	    lo--;
+	while (hi < last && canWriteBack(hi+1))
+	    hi++;
+
+	int[] ppns = new int[hi-lo+1];
+	for (int i = lo; i <= hi; i++) {
+	    ppns[i-lo] = pageTable[i].ppn;
+	    pageTable[i].dirty = false;
+	    inSwap[i] = true;
+	}
+
+	Lib.debug(dbgVM, "vpns " + lo + "-" + hi + " -> swap slot "
+		  + swapSlot(lo) + " (evicted vpn " + vpn + ")");
+	VMKernel.swapFile.write(swapSlot(lo), ppns);
+    }
+
+    private boolean canWriteBack(int vpn) {
+	TranslationEntry entry = pageTable[vpn];
+	return entry.valid && entry.dirty
+	    && !VMKernel.invertedPageTable.isPinned(entry.ppn);
+    }
+
+    private int swapSlot(int vpn) {
+	return swapClusters[vpn / clusterSize] + vpn % clusterSize;
+    }
+
+    /** The COFF section backing each virtual page, or <tt>null</tt>. */
+    private CoffSection[] sections;
+    /** The page within its COFF section of each virtual page. */
+    private int[] sectionPages;
+    /** Whether each resident virtual page maps a shared frame. */
+    private boolean[] shared;
+    /** Whether the swap file holds a copy of each virtual page. */
+    private boolean[] inSwap;
+    /** The first swap slot of each cluster of virtual pages, or -1. */
+    private int[] swapClusters;
+
     private static final int pageSize = Processor.pageSize;
+    private static final int clusterSize = SwapFile.clusterSize;
     private static final char dbgProcess = 'a';
     private static final char dbgVM = 'v';
 }